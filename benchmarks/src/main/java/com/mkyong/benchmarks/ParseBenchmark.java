@@ -0,0 +1,62 @@
+package com.mkyong.benchmarks;
+
+import com.mkyong.service.hlsM3u8Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of hlsM3u8Parser.parse() over the whole input, in its different modes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"LIVE", "VOD_50K", "BYTE_RANGE", "MASTER", "RECORDED_LIVE_RADIO", "RECORDED_MASTER"})
+    public PlaylistFixtures.Fixture fixture;
+
+    private byte[] data;
+    private URL context;
+
+    @Setup
+    public void setup() {
+        this.data = this.fixture.bytes();
+        this.context = PlaylistFixtures.context();
+    }
+
+    @Benchmark
+    public hlsM3u8Parser parse() {
+        return new hlsM3u8Parser(new ByteArrayInputStream(this.data), this.context, true);
+    }
+
+    @Benchmark
+    public hlsM3u8Parser parseLazyAttributes() {
+        hlsM3u8Parser parser = new hlsM3u8Parser(new ByteArrayInputStream(this.data), this.context, false);
+        parser.setLazyAttributes(true);
+        parser.parse();
+        return parser;
+    }
+
+    @Benchmark
+    public void parseStreaming(Blackhole bh) {
+        hlsM3u8Parser parser = new hlsM3u8Parser(new ByteArrayInputStream(this.data), this.context, false);
+        parser.parse(bh::consume);
+    }
+}
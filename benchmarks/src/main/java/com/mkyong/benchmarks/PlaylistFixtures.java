@@ -0,0 +1,180 @@
+package com.mkyong.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Playlists we benchmark against. Synthetic ones are generated, recorded ones are read from the
+ * fixtures/ resources folder.
+ */
+public final class PlaylistFixtures {
+
+    public static final String CONTEXT_URL = "http://c13.prod.playlists.example.com:80/1713/playlist.m3u8";
+
+    public static final String SESSION_TRAILER = "?listeningSessionID=5b9c08c34a7a49cd_11610354_x53gH5XK__000000706Tz&downloadSessionID=0";
+
+    public enum Fixture {
+        /**
+         * Small sliding-window live media playlist (6 segments)
+         */
+        LIVE,
+        /**
+         * Large VOD media playlist with 50k segments
+         */
+        VOD_50K,
+        /**
+         * VOD media playlist addressing 10k segments as byte-ranges of a single file
+         */
+        BYTE_RANGE,
+        /**
+         * Master playlist with 48 variants and EXT-X-MEDIA audio/subtitles groups
+         */
+        MASTER,
+        /**
+         * Recorded live radio media playlist
+         */
+        RECORDED_LIVE_RADIO,
+        /**
+         * Recorded VOD master playlist
+         */
+        RECORDED_MASTER;
+
+        public byte[] bytes() {
+            switch (this) {
+                case LIVE:
+                    return utf8(liveMediaPlaylist(6, 1000));
+                case VOD_50K:
+                    return utf8(vodMediaPlaylist(50000));
+                case BYTE_RANGE:
+                    return utf8(byteRangeMediaPlaylist(10000));
+                case MASTER:
+                    return utf8(masterPlaylist(48));
+                case RECORDED_LIVE_RADIO:
+                    return resource("fixtures/live-radio.m3u8");
+                case RECORDED_MASTER:
+                    return resource("fixtures/vod-master.m3u8");
+                default:
+                    throw new RuntimeException("Unknown fixture: " + this);
+            }
+        }
+    }
+
+    private PlaylistFixtures() {}
+
+    public static URL context() {
+        try {
+            return new URL(CONTEXT_URL);
+        } catch (MalformedURLException mue) {
+            throw new RuntimeException(mue);
+        }
+    }
+
+    public static String liveMediaPlaylist(int segments, long mediaSequence) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:3\n");
+        sb.append("#EXT-X-TARGETDURATION:10\n");
+        sb.append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append('\n');
+        for (int i = 0; i < segments; i++) {
+            sb.append("#EXTINF:10.005,\n");
+            sb.append("1713/live_").append(mediaSequence + i).append(".aac\n");
+        }
+        return sb.toString();
+    }
+
+    public static String vodMediaPlaylist(int segments) {
+        StringBuilder sb = new StringBuilder(segments * 48);
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:3\n");
+        sb.append("#EXT-X-TARGETDURATION:6\n");
+        sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        sb.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        for (int i = 0; i < segments; i++) {
+            sb.append("#EXTINF:6.006,\n");
+            sb.append("segments/segment_").append(i).append(".ts\n");
+        }
+        sb.append("#EXT-X-ENDLIST\n");
+        return sb.toString();
+    }
+
+    public static String byteRangeMediaPlaylist(int segments) {
+        StringBuilder sb = new StringBuilder(segments * 64);
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:4\n");
+        sb.append("#EXT-X-TARGETDURATION:6\n");
+        sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        sb.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        long offset = 0;
+        for (int i = 0; i < segments; i++) {
+            int length = 180000 + (i % 7) * 1024;
+            sb.append("#EXTINF:6.0,\n");
+            sb.append("#EXT-X-BYTERANGE:").append(length).append('@').append(offset).append('\n');
+            sb.append("main.ts\n");
+            offset += length;
+        }
+        sb.append("#EXT-X-ENDLIST\n");
+        return sb.toString();
+    }
+
+    public static String masterPlaylist(int variants) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n");
+        String[] audioGroups = {"aac-lo", "aac-hi"};
+        String[] languages = {"en", "de", "fr"};
+        for (String group : audioGroups) {
+            for (String language : languages) {
+                sb.append("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"").append(group)
+                        .append("\",NAME=\"").append(language)
+                        .append("\",LANGUAGE=\"").append(language)
+                        .append("\",URI=\"audio_").append(group).append('_').append(language).append(".m3u8\"\n");
+            }
+        }
+        for (String language : languages) {
+            sb.append("#EXT-X-MEDIA:TYPE=SUBTITLES,GROUP-ID=\"subs\",NAME=\"").append(language)
+                    .append("\",LANGUAGE=\"").append(language)
+                    .append("\",URI=\"subs_").append(language).append(".m3u8\"\n");
+        }
+        String[] resolutions = {"416x234", "640x360", "768x432", "960x540", "1280x720", "1920x1080"};
+        String[] codecs = {"avc1.42001e,mp4a.40.2", "avc1.4d001f,mp4a.40.2", "avc1.640028,mp4a.40.2", "avc1.640029,mp4a.40.5"};
+        for (int i = 0; i < variants; i++) {
+            sb.append("#EXT-X-STREAM-INF:PROGRAM-ID=1,BANDWIDTH=").append(145000 + i * 125000)
+                    .append(",CODECS=\"").append(codecs[i % codecs.length])
+                    .append("\",RESOLUTION=").append(resolutions[i % resolutions.length])
+                    .append(",AUDIO=\"").append(audioGroups[i % audioGroups.length]).append("\"\n");
+            sb.append("variant_").append(i).append("/index.m3u8\n");
+        }
+        return sb.toString();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] resource(String name) {
+        InputStream in = PlaylistFixtures.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new RuntimeException("Missing fixture: " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to read fixture: " + name, ioe);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ioe) {
+                // nothing we can do here
+            }
+        }
+    }
+}
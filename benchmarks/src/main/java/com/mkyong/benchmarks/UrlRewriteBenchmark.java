@@ -0,0 +1,58 @@
+package com.mkyong.benchmarks;
+
+import com.mkyong.service.hlsM3u8Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of hlsM3u8Parser.addTrailerToEachURL(String), kept as the baseline for UrlRewriter
+ * (see WriteBenchmark.writeToRewritten).
+ * The method mutates the entries, so we need a freshly parsed playlist for every invocation. That setup is
+ * not part of the measurement, but for the small fixtures the timer overhead is not negligible (see Level.Invocation).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlRewriteBenchmark {
+
+    @Param({"LIVE", "VOD_50K", "BYTE_RANGE", "MASTER", "RECORDED_LIVE_RADIO", "RECORDED_MASTER"})
+    public PlaylistFixtures.Fixture fixture;
+
+    private byte[] data;
+    private URL context;
+    private hlsM3u8Parser parser;
+
+    @Setup(Level.Trial)
+    public void loadFixture() {
+        this.data = this.fixture.bytes();
+        this.context = PlaylistFixtures.context();
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() {
+        this.parser = new hlsM3u8Parser(new ByteArrayInputStream(this.data), this.context, true);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public boolean addTrailerToEachURL() {
+        return this.parser.addTrailerToEachURL(PlaylistFixtures.SESSION_TRAILER);
+    }
+}
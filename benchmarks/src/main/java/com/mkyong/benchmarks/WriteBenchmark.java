@@ -0,0 +1,101 @@
+package com.mkyong.benchmarks;
+
+import com.mkyong.service.PlaylistTemplate;
+import com.mkyong.service.UrlRewriter;
+import com.mkyong.service.hlsM3u8Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of hlsM3u8Parser.writeTo(OutputStream) and writeTo(ByteBuffer) for an already parsed playlist,
+ * and of writeTo(OutputStream, UrlRewriter, Map) signing every URI for a session (compare with UrlRewriteBenchmark).
+ * writeTemplate renders the same session from a PlaylistTemplate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+    @Param({"LIVE", "VOD_50K", "BYTE_RANGE", "MASTER", "RECORDED_LIVE_RADIO", "RECORDED_MASTER"})
+    public PlaylistFixtures.Fixture fixture;
+
+    private hlsM3u8Parser parser;
+    private CountingOutputStream out;
+    private ByteBuffer target;
+    private UrlRewriter rewriter;
+    private Map<String, String> session;
+    private PlaylistTemplate template;
+
+    @Setup
+    public void setup() {
+        this.parser = new hlsM3u8Parser(new ByteArrayInputStream(this.fixture.bytes()), PlaylistFixtures.context(), true);
+        this.out = new CountingOutputStream();
+        this.target = ByteBuffer.allocateDirect(this.parser.serialize().size());
+        this.rewriter = new UrlRewriter.Builder()
+                .setQueryParameter("listeningSessionID", "${listeningSessionID}")
+                .setQueryParameter("downloadSessionID", "0")
+                .build();
+        this.session = Collections.singletonMap("listeningSessionID", "5b9c08c34a7a49cd_11610354_x53gH5XK__000000706Tz");
+        this.template = PlaylistTemplate.of(this.parser, this.rewriter);
+    }
+
+    @Benchmark
+    public long writeTo() {
+        this.parser.writeTo(this.out);
+        return this.out.count;
+    }
+
+    @Benchmark
+    public long writeToRewritten() {
+        this.parser.writeTo(this.out, this.rewriter, this.session);
+        return this.out.count;
+    }
+
+    @Benchmark
+    public long writeTemplate() {
+        this.template.writeTo(this.out, this.session);
+        return this.out.count;
+    }
+
+    @Benchmark
+    public int writeToByteBuffer() {
+        this.target.clear();
+        return this.parser.writeTo(this.target);
+    }
+
+    /**
+     * Discards everything, but keeps the writes observable so they can't be optimized away
+     */
+    static class CountingOutputStream extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.mkyong;
+
+import com.mkyong.service.ParsedPlaylist;
+import com.mkyong.service.PlaylistSnapshot;
+import com.mkyong.service.UrlRewriter;
+import com.mkyong.service.hlsM3u8Parser;
+import com.mkyong.service.hlsM3u8Parser.Diagnostic;
+import com.mkyong.service.hlsM3u8Parser.GroupInfoEntry;
+import com.mkyong.service.hlsM3u8Parser.MediaInfoEntry;
+import com.mkyong.service.hlsM3u8Parser.StreamInfoEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Plain-Java command line entry point for batch jobs and scripts: no Spring, no OkHttp, only the JDK and the parser,
+ * so that a process starts and exits in tens of milliseconds (see the "cli" jar in pom.xml, and the AppCDS notes there).
+ *
+ *   java -jar spring-boot-simple-1.0-cli.jar <command> [options] <playlist>
+ *
+ * Exits with 0 on success, 1 if the playlist couldn't be read or is invalid, 2 on a usage error.
+ */
+public final class HlsCli {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int READ_TIMEOUT_MS = 15 * 1000;
+
+    private static final String USAGE =
+            "Usage: hls-cli <command> [options] <playlist>\n"
+            + "\n"
+            + "<playlist> is a file, a http(s) URL, or - for the standard input.\n"
+            + "\n"
+            + "Commands:\n"
+            + "  parse      Parses the playlist and prints a summary of it\n"
+            + "               -s <file>              Also writes a snapshot of it (see PlaylistSnapshot)\n"
+            + "  validate   Parses the playlist leniently and prints every problem found, fails if there is any\n"
+            + "  rewrite    Writes the playlist back with its URIs rewritten (see UrlRewriter)\n"
+            + "               --prefix <from>=<to>   Replaces the beginning of the path\n"
+            + "               --set <name>=<value>   Sets a query parameter\n"
+            + "               --append <name>=<v>    Appends a query parameter\n"
+            + "               --remove <name>        Removes a query parameter\n"
+            + "               --suffix <text>        Appends text at the end of the URI\n"
+            + "               --token <name>=<value> Value of a ${name} token used in the above\n"
+            + "               -o <file>              Writes to the file instead of the standard output\n"
+            + "  dump       Prints the segments (or variants and renditions), one per line, tab-separated\n"
+            + "\n"
+            + "Options:\n"
+            + "  --context <url>   URL relative URIs are relative to, defaults to the playlist's own\n"
+            + "  --lenient         Keeps what can't be parsed instead of failing (validate always is)\n";
+
+    private HlsCli() {}
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * @return Exit code
+     */
+    static int run(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        if (options == null) {
+            System.out.print(USAGE);
+            return EXIT_OK;
+        }
+
+        try {
+            switch (options.command) {
+                case "parse":
+                    return parse(options);
+                case "validate":
+                    return validate(options);
+                case "rewrite":
+                    return rewrite(options);
+                case "dump":
+                    return dump(options);
+                default:
+                    System.err.println("Unknown command: " + options.command);
+                    System.err.print(USAGE);
+                    return EXIT_USAGE;
+            }
+        } catch (RuntimeException re) {
+            System.err.println("Failed: " + re.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    private static int parse(Options options) {
+        long start = System.nanoTime();
+        hlsM3u8Parser parser = options.parser();
+        long parseNanos = System.nanoTime() - start;
+
+        PrintWriter out = stdout();
+        out.println("type\t" + parser.getFileType());
+        out.println("version\t" + parser.getVersion());
+        out.println("entries\t" + parser.getEntries().size());
+        if (parser.getFileType() == hlsM3u8Parser.FileType.MASTER_PLAYLIST) {
+            out.println("variants\t" + parser.getStreamInfoEntries().size());
+            out.println("i-frame variants\t" + parser.getIFrameStreamInfoEntries().size());
+            out.println("renditions\t" + parser.getGroupInfoEntries().size());
+        } else {
+            double duration = 0;
+            for (MediaInfoEntry segment : parser.getMediaInfoEntries()) {
+                duration += segment.getDuration();
+            }
+            out.println("segments\t" + parser.getMediaInfoEntries().size());
+            out.println("duration\t" + duration);
+            out.println("media sequence\t" + parser.getMediaSequence());
+            out.println("target duration\t" + parser.getTargetDuration());
+            out.println("ended\t" + parser.hasEndList());
+        }
+        if (parser.getDiagnosticsCount() > 0) {
+            out.println("problems\t" + parser.getDiagnosticsCount());
+        }
+        out.println("parse ms\t" + parseNanos / 1000000.0);
+
+        if (options.snapshot != null) {
+            ParsedPlaylist playlist = new ParsedPlaylist(parser);
+            PlaylistSnapshot.write(playlist, Paths.get(options.snapshot));
+            out.println("snapshot\t" + options.snapshot);
+        }
+        out.flush();
+        return EXIT_OK;
+    }
+
+    private static int validate(Options options) {
+        options.lenient = true;
+        hlsM3u8Parser parser = options.parser();
+
+        PrintWriter out = stdout();
+        for (Diagnostic diagnostic : parser.getDiagnostics()) {
+            out.println(diagnostic + (diagnostic.getLine() == null ? "" : "\t" + diagnostic.getLine()));
+        }
+        long count = parser.getDiagnosticsCount();
+        if (count > parser.getDiagnostics().size()) {
+            out.println("... " + (count - parser.getDiagnostics().size()) + " more");
+        }
+        if (parser.getFileType() == null) {
+            out.println("Not a playlist");
+            count++;
+        }
+        out.println(count == 0 ? "valid" : count + " problem(s)");
+        out.flush();
+        return count == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private static int rewrite(Options options) {
+        hlsM3u8Parser parser = options.parser();
+        UrlRewriter rewriter = options.rewriter.build();
+
+        if (options.output == null) {
+            parser.writeTo(new BufferedOutputStream(System.out), rewriter, options.tokens);
+            return EXIT_OK;
+        }
+        try (OutputStream out = Files.newOutputStream(Paths.get(options.output))) {
+            parser.writeTo(out, rewriter, options.tokens);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write " + options.output + ": " + ioe.getMessage(), ioe);
+        }
+        return EXIT_OK;
+    }
+
+    private static int dump(Options options) {
+        hlsM3u8Parser parser = options.parser();
+
+        PrintWriter out = stdout();
+        if (parser.getFileType() == hlsM3u8Parser.FileType.MASTER_PLAYLIST) {
+            for (StreamInfoEntry variant : parser.getStreamInfoEntries()) {
+                out.println("variant\t" + variant.getBandwidth()
+                        + "\t" + orDash(variant.getResolution())
+                        + "\t" + orDash(variant.getCodecs())
+                        + "\t" + orDash(variant.getAudioGroupId())
+                        + "\t" + variant.getUri());
+            }
+            for (GroupInfoEntry rendition : parser.getGroupInfoEntries()) {
+                out.println("rendition\t" + rendition.getGroupType()
+                        + "\t" + orDash(rendition.getGroupId())
+                        + "\t" + orDash(rendition.getName())
+                        + "\t" + orDash(rendition.getLanguage())
+                        + "\t" + orDash(rendition.getUri()));
+            }
+        } else {
+            for (MediaInfoEntry segment : parser.getMediaInfoEntries()) {
+                out.println(segment.getSequence()
+                        + "\t" + segment.getDuration()
+                        + "\t" + (segment.hasByteRange() ? segment.getByteRangeStart() + "-" + segment.getByteRangeEnd() : "-")
+                        + "\t" + segment.getUri());
+            }
+        }
+        out.flush();
+        return EXIT_OK;
+    }
+
+    private static String orDash(Object value) {
+        return value == null ? "-" : value.toString();
+    }
+
+    private static PrintWriter stdout() {
+        return new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(System.out), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Command line, parsed by hand: an argument parsing library would cost more startup time than everything else
+     */
+    static final class Options {
+        String command;
+        String playlist;
+        URL context;
+        boolean lenient = false;
+        String snapshot;
+        String output;
+        final UrlRewriter.Builder rewriter = new UrlRewriter.Builder();
+        final HashMap<String, String> tokens = new HashMap<>();
+
+        /**
+         * @return Null if help was asked for
+         * @throws IllegalArgumentException on a usage error
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            List<String> positional = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-h":
+                    case "--help":
+                        return null;
+                    case "--context":
+                        options.context = context(value(args, ++i, arg), arg);
+                        break;
+                    case "--lenient":
+                        options.lenient = true;
+                        break;
+                    case "-s":
+                        options.snapshot = value(args, ++i, arg);
+                        break;
+                    case "-o":
+                        options.output = value(args, ++i, arg);
+                        break;
+                    case "--prefix": {
+                        String[] pair = pair(value(args, ++i, arg), arg);
+                        options.rewriter.replacePathPrefix(pair[0], pair[1]);
+                        break;
+                    }
+                    case "--set": {
+                        String[] pair = pair(value(args, ++i, arg), arg);
+                        options.rewriter.setQueryParameter(pair[0], pair[1]);
+                        break;
+                    }
+                    case "--append": {
+                        String[] pair = pair(value(args, ++i, arg), arg);
+                        options.rewriter.appendQueryParameter(pair[0], pair[1]);
+                        break;
+                    }
+                    case "--remove":
+                        options.rewriter.removeQueryParameter(value(args, ++i, arg));
+                        break;
+                    case "--suffix":
+                        options.rewriter.appendSuffix(value(args, ++i, arg));
+                        break;
+                    case "--token": {
+                        String[] pair = pair(value(args, ++i, arg), arg);
+                        options.tokens.put(pair[0], pair[1]);
+                        break;
+                    }
+                    default:
+                        if (arg.startsWith("-") && !arg.equals("-")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        positional.add(arg);
+                }
+            }
+            if (positional.isEmpty()) {
+                return null;
+            }
+            if (positional.size() != 2) {
+                throw new IllegalArgumentException("Expected a command and a playlist, got: " + positional);
+            }
+            options.command = positional.get(0);
+            options.playlist = positional.get(1);
+            return options;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            return args[i];
+        }
+
+        private static URL context(String value, String option) {
+            try {
+                return new URL(value);
+            } catch (MalformedURLException mue) {
+                throw new IllegalArgumentException("Expected a URL for " + option + ", got: " + value);
+            }
+        }
+
+        private static String[] pair(String value, String option) {
+            int split = value.indexOf('=');
+            if (split <= 0) {
+                throw new IllegalArgumentException("Expected <name>=<value> for " + option + ", got: " + value);
+            }
+            return new String[] {value.substring(0, split), value.substring(split + 1)};
+        }
+
+        /**
+         * @return Parser which has parsed the playlist, URIs being kept as written (see setLazyUrls)
+         */
+        hlsM3u8Parser parser() {
+            URL context = this.context;
+            hlsM3u8Parser parser;
+            InputStream in = null;
+            try {
+                if (this.playlist.equals("-")) {
+                    parser = new hlsM3u8Parser(System.in, context, false);
+                } else if (this.playlist.startsWith("http://") || this.playlist.startsWith("https://")) {
+                    URL url = url(this.playlist);
+                    URLConnection connection = url.openConnection();
+                    connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                    connection.setReadTimeout(READ_TIMEOUT_MS);
+                    in = connection.getInputStream();
+                    parser = new hlsM3u8Parser(in, context == null ? url : context, false);
+                } else {
+                    Path file = Paths.get(this.playlist);
+                    if (!Files.isRegularFile(file)) {
+                        throw new RuntimeException("No such file: " + this.playlist);
+                    }
+                    parser = new hlsM3u8Parser(file, context == null ? file.toUri().toURL() : context, false);
+                }
+                parser.setLazyUrls(true);
+                parser.setLenient(this.lenient);
+                parser.parse();
+                return parser;
+            } catch (IOException ioe) {
+                throw new RuntimeException("Failed to read " + this.playlist + ": " + ioe.getMessage(), ioe);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ioe) {
+                        // Already parsed (or failed for a better reason)
+                    }
+                }
+            }
+        }
+
+        private static URL url(String url) {
+            try {
+                return new URL(url);
+            } catch (MalformedURLException mue) {
+                throw new RuntimeException("Malformed URL: " + url, mue);
+            }
+        }
+    }
+}
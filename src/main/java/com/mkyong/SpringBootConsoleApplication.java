@@ -1,7 +1,7 @@
 package com.mkyong;
 
 import com.mkyong.service.HelloMessageService;
-import com.mkyong.service.JavaHttpUrlConnectionReader;
+import com.mkyong.service.HlsPlaylistFetcher;
 import com.mkyong.service.hlsM3u8Parser;
 import okhttp3.HttpUrl;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,10 +10,6 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.nio.charset.Charset;
-
 import static java.lang.System.exit;
 
 @SpringBootApplication
@@ -44,11 +40,10 @@ public class SpringBootConsoleApplication implements CommandLineRunner {
         }
 
 try {
-     String results = JavaHttpUrlConnectionReader.doHttpUrlConnectionAction(URL_STR);
 //    String results = "#EXTINF:3,title=\"Woody Sander Ford\",artist=\"Dc\",url=\"song_spot=\"T\" MediaBaseId=\"-1\" itunesTrackId=\"0\" amgTrackId=\"-1\" amgArtistId=\"0\" TAID=\"-1\" TPID=\"-1\" cartcutId=\"7285969001\" amgArtworkURL=\"\" length=\"00:00:17\" unsID=\"-1\" spotInstanceId=\"-1\"";
 
-    InputStream inputStream = new ByteArrayInputStream(results.getBytes(Charset.forName("UTF-8")));
-    final hlsM3u8Parser hlsM3u8Parser = new hlsM3u8Parser(inputStream, URL.url(), true);
+    final hlsM3u8Parser hlsM3u8Parser = HlsPlaylistFetcher.getDefault().fetch(URL.toString()).get();
+    System.out.println(hlsM3u8Parser.getFileType() + " playlist, " + hlsM3u8Parser.getEntries().size() + " entries");
 
 } catch (Exception e) {
     System.out.println(e.getMessage());
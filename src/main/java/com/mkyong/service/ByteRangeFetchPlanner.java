@@ -0,0 +1,209 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.MediaInfoEntry;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans the HTTP range requests to fetch the byte-range segments (EXT-X-BYTERANGE) of a media playlist with, e.g for
+ * prefetching or transcoding a single-file asset: adjacent or overlapping ranges of the same resource are merged into
+ * fewer, larger requests, up to a maximum request size.
+ *
+ *   for (ByteRangeFetchPlanner.RangeRequest request : new ByteRangeFetchPlanner(8 << 20).plan(table)) {
+ *       // GET request.getUri() with "Range: " + request.getRangeHeader(), then segment request.getSegmentIndex(i)
+ *       // is found at request.getSegmentOffset(i) in the response body
+ *   }
+ *
+ * Segments without a byte-range are left out (they're fetched whole anyway). Immutable and thread-safe.
+ */
+public final class ByteRangeFetchPlanner {
+
+    public static final long DEFAULT_MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * One HTTP range request, covering one or more segments
+     */
+    public static final class RangeRequest {
+        private final String uri;
+        private final long start;
+        private final long end;
+        private final int[] segments;
+        private final long[] offsets;
+
+        private RangeRequest(String uri, long start, long end, int[] segments, long[] offsets) {
+            this.uri = uri;
+            this.start = start;
+            this.end = end;
+            this.segments = segments;
+            this.offsets = offsets;
+        }
+
+        /**
+         * @return URI of the resource as kept by the table, see MediaSegmentTable.getUri(int)
+         */
+        public String getUri() {
+            return this.uri;
+        }
+
+        public long getStart() {
+            return this.start;
+        }
+
+        /**
+         * @return Last byte of the request (inclusive)
+         */
+        public long getEnd() {
+            return this.end;
+        }
+
+        public long getLength() {
+            return this.end - this.start + 1;
+        }
+
+        /**
+         * @return Value of the Range header, e.g bytes=0-1048575
+         */
+        public String getRangeHeader() {
+            return "bytes=" + this.start + "-" + this.end;
+        }
+
+        /**
+         * @return Amount of segments the request covers
+         */
+        public int getSegmentsCount() {
+            return this.segments.length;
+        }
+
+        /**
+         * @param i From 0 to getSegmentsCount() - 1, segments are in ascending start offset
+         * @return Index of the segment in the table (or list) the plan was made from
+         */
+        public int getSegmentIndex(int i) {
+            return this.segments[i];
+        }
+
+        /**
+         * @return Where segment i starts in the response body, i.e its first byte minus getStart()
+         */
+        public long getSegmentOffset(int i) {
+            return this.offsets[i];
+        }
+
+        /**
+         * @return Indexes of the covered segments, see getSegmentIndex(int)
+         */
+        public int[] getSegmentIndexes() {
+            return this.segments.clone();
+        }
+
+        @Override
+        public String toString() {
+            return this.uri + " " + this.getRangeHeader() + " " + Arrays.toString(this.segments);
+        }
+    }
+
+    private final long maxRequestSize;
+    private final long maxGap;
+
+    public ByteRangeFetchPlanner() {
+        this(DEFAULT_MAX_REQUEST_SIZE);
+    }
+
+    /**
+     * Merges adjacent and overlapping ranges only
+     */
+    public ByteRangeFetchPlanner(long maxRequestSize) {
+        this(maxRequestSize, 0);
+    }
+
+    /**
+     * @param maxRequestSize Ranges are not merged past that many bytes. A single range larger than that still gets a
+     *                       request of its own, it's not split.
+     * @param maxGap Ranges with at most that many bytes in between are merged too, the bytes in between being fetched
+     *               for nothing. 0 for adjacent and overlapping ranges only.
+     */
+    public ByteRangeFetchPlanner(long maxRequestSize, long maxGap) {
+        if (maxRequestSize <= 0 || maxGap < 0) {
+            throw new RuntimeException("Invalid fetch planner, max request size: " + maxRequestSize + ", max gap: " + maxGap);
+        }
+        this.maxRequestSize = maxRequestSize;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * @param segments Segments of a parsed playlist, e.g hlsM3u8Parser.getMediaInfoEntries()
+     * @param context URL of the playlist, see MediaSegmentTable.of(List, URL)
+     * @return Requests in order of the first segment of each resource, then in ascending offset.
+     * Segment indexes are positions in segments.
+     */
+    public List<RangeRequest> plan(List<MediaInfoEntry> segments, URL context) {
+        return this.plan(MediaSegmentTable.of(segments, context));
+    }
+
+    /**
+     * @return Requests in order of the first segment of each resource, then in ascending offset
+     */
+    public List<RangeRequest> plan(MediaSegmentTable table) {
+        // Segments with a byte-range by resource, in order of appearance
+        LinkedHashMap<String, ArrayList<Integer>> byUri = new LinkedHashMap<>();
+        for (int i = 0; i < table.size(); i++) {
+            if (table.getByteRangeEnd(i) < table.getByteRangeStart(i)) {
+                continue;
+            }
+            String uri = table.getUri(i);
+            ArrayList<Integer> indexes = byUri.get(uri);
+            if (indexes == null) {
+                indexes = new ArrayList<>();
+                byUri.put(uri, indexes);
+            }
+            indexes.add(i);
+        }
+
+        ArrayList<RangeRequest> requests = new ArrayList<>();
+        for (Map.Entry<String, ArrayList<Integer>> e : byUri.entrySet()) {
+            this.merge(table, e.getKey(), e.getValue(), requests);
+        }
+        return Collections.unmodifiableList(requests);
+    }
+
+    private void merge(final MediaSegmentTable table, String uri, List<Integer> indexes, List<RangeRequest> requests) {
+        // Segments usually come in ascending offset already, the sort is stable and then cheap
+        Integer[] sorted = indexes.toArray(new Integer[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(table.getByteRangeStart(a), table.getByteRangeStart(b)));
+
+        int first = 0;
+        long start = table.getByteRangeStart(sorted[0]);
+        long end = table.getByteRangeEnd(sorted[0]);
+        for (int i = 1; i < sorted.length; i++) {
+            long nextStart = table.getByteRangeStart(sorted[i]);
+            long mergedEnd = Math.max(end, table.getByteRangeEnd(sorted[i]));
+            // Note: nextStart - end - 1 is the gap, negative when overlapping
+            if (nextStart - end - 1 <= this.maxGap && mergedEnd - start + 1 <= this.maxRequestSize) {
+                end = mergedEnd;
+                continue;
+            }
+            requests.add(request(table, uri, start, end, sorted, first, i));
+            first = i;
+            start = nextStart;
+            end = table.getByteRangeEnd(sorted[i]);
+        }
+        requests.add(request(table, uri, start, end, sorted, first, sorted.length));
+    }
+
+    private static RangeRequest request(MediaSegmentTable table, String uri, long start, long end, Integer[] sorted,
+                                        int from, int to) {
+        int[] segments = new int[to - from];
+        long[] offsets = new long[to - from];
+        for (int i = from; i < to; i++) {
+            segments[i - from] = sorted[i];
+            offsets[i - from] = table.getByteRangeStart(sorted[i]) - start;
+        }
+        return new RangeRequest(uri, start, end, segments, offsets);
+    }
+}
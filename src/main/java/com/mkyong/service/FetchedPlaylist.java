@@ -0,0 +1,90 @@
+package com.mkyong.service;
+
+/**
+ * A parsed playlist together with what we need to tell whether the next download of it changed:
+ * the HTTP validators (ETag / Last-Modified) and a hash of the body.
+ * See HlsPlaylistFetcher.fetchIfChanged(String, FetchedPlaylist).
+ *
+ * Immutable, but note the parser itself is not (e.g addTrailerToEachURL).
+ */
+public final class FetchedPlaylist {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 64-bit FNV-1a hash, computed byte by byte in a single pass
+     */
+    static long hash(byte[] data, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private final hlsM3u8Parser parser;
+    private final String etag;
+    private final String lastModified;
+    private final long contentHash;
+    private final int contentLength;
+    private final boolean modified;
+
+    FetchedPlaylist(hlsM3u8Parser parser, String etag, String lastModified, long contentHash, int contentLength, boolean modified) {
+        this.parser = parser;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+        this.contentLength = contentLength;
+        this.modified = modified;
+    }
+
+    /**
+     * @return Same playlist, flagged as not modified, with the validators of the latest response (when it has any)
+     */
+    FetchedPlaylist unchanged(String etag, String lastModified) {
+        return new FetchedPlaylist(
+                this.parser,
+                etag != null ? etag : this.etag,
+                lastModified != null ? lastModified : this.lastModified,
+                this.contentHash,
+                this.contentLength,
+                false
+        );
+    }
+
+    boolean hasSameContent(long contentHash, int contentLength) {
+        return this.contentHash == contentHash && this.contentLength == contentLength;
+    }
+
+    /**
+     * @return The parsed playlist. When isModified() is false, this is the very same instance as before.
+     */
+    public hlsM3u8Parser getParser() {
+        return this.parser;
+    }
+
+    /**
+     * @return False when the server answered 304, or sent the exact same body as before (parsing was skipped then)
+     */
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    public String getEtag() {
+        return this.etag;
+    }
+
+    public String getLastModified() {
+        return this.lastModified;
+    }
+
+    public long getContentHash() {
+        return this.contentHash;
+    }
+
+    public int getContentLength() {
+        return this.contentLength;
+    }
+}
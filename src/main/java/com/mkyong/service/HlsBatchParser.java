@@ -0,0 +1,247 @@
+package com.mkyong.service;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses many playlists in parallel on a fork-join pool, one parser per input (parsers are single-use).
+ *
+ * A failing input (unreadable file, malformed playlist...) only fails its own result, the rest of the batch goes on.
+ * Inputs are independent from each other, so with the work-stealing pool the throughput grows with the amount of
+ * cores as long as the disk keeps up.
+ *
+ * Thread-safe, the same instance can run several batches at once.
+ */
+public class HlsBatchParser {
+
+    /**
+     * Below this amount of inputs, a task parses them itself instead of forking
+     */
+    public static final int DEFAULT_SPLIT_THRESHOLD = 4;
+
+    /**
+     * One playlist to parse: a file, or a stream, plus the URL to resolve its URIs against
+     */
+    public static final class Input {
+        private final Path path;
+        private final InputStream stream;
+        private final URL context;
+
+        private Input(Path path, InputStream stream, URL context) {
+            this.path = path;
+            this.stream = stream;
+            this.context = context;
+        }
+
+        /**
+         * @param path File to parse, memory-mapped by the parser (see hlsM3u8Parser(Path, URL, boolean))
+         */
+        public static Input of(Path path, URL context) {
+            return new Input(path, null, context);
+        }
+
+        /**
+         * @param stream Stream to parse. Like hlsM3u8Parser does, the batch reads it until the end but never closes it.
+         */
+        public static Input of(InputStream stream, URL context) {
+            return new Input(null, stream, context);
+        }
+
+        /**
+         * @return The file, or null for a stream input
+         */
+        public Path getPath() {
+            return this.path;
+        }
+
+        public URL getContext() {
+            return this.context;
+        }
+
+        @Override
+        public String toString() {
+            return this.path != null ? this.path.toString() : String.valueOf(this.context);
+        }
+    }
+
+    /**
+     * Outcome for one input: either a parsed playlist or the error it failed with
+     */
+    public static final class Result {
+        private final int index;
+        private final Input input;
+        private final hlsM3u8Parser parser;
+        private final Exception error;
+
+        Result(int index, Input input, hlsM3u8Parser parser, Exception error) {
+            this.index = index;
+            this.input = input;
+            this.parser = parser;
+            this.error = error;
+        }
+
+        /**
+         * @return Position of the input in the batch
+         */
+        public int getIndex() {
+            return this.index;
+        }
+
+        public Input getInput() {
+            return this.input;
+        }
+
+        public boolean isSuccess() {
+            return this.error == null;
+        }
+
+        /**
+         * @return The parsed playlist, null if isSuccess() is false
+         */
+        public hlsM3u8Parser getParser() {
+            return this.parser;
+        }
+
+        /**
+         * @return A RuntimeException, caused by an IOException if the input couldn't be read
+         */
+        public Exception getError() {
+            return this.error;
+        }
+    }
+
+    /**
+     * Receives the results as soon as they are ready, see forEach(Collection, ResultHandler)
+     */
+    public interface ResultHandler {
+        /**
+         * Called from the pool threads, concurrently and in no particular order
+         */
+        void onResult(Result result);
+    }
+
+    private final ForkJoinPool pool;
+    private final int splitThreshold;
+    private volatile boolean lazyAttributes = false;
+
+    /**
+     * Batch parser running on the common pool
+     */
+    public HlsBatchParser() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SPLIT_THRESHOLD);
+    }
+
+    /**
+     * @param pool Pool to run the batches on, e.g a dedicated one to not starve the common pool
+     * @param splitThreshold See DEFAULT_SPLIT_THRESHOLD
+     */
+    public HlsBatchParser(ForkJoinPool pool, int splitThreshold) {
+        if (splitThreshold < 1) {
+            throw new IllegalArgumentException("Split threshold must be positive: " + splitThreshold);
+        }
+        this.pool = pool;
+        this.splitThreshold = splitThreshold;
+    }
+
+    /**
+     * @see hlsM3u8Parser#setLazyAttributes(boolean)
+     */
+    public void setLazyAttributes(boolean lazyAttributes) {
+        this.lazyAttributes = lazyAttributes;
+    }
+
+    /**
+     * Parses all inputs and waits for the whole batch.
+     * @return One result per input, in the order of the inputs
+     */
+    public List<Result> parseAll(Collection<Input> inputs) {
+        final Result[] results = new Result[inputs.size()];
+        this.forEach(inputs, new ResultHandler() {
+            @Override
+            public void onResult(Result result) {
+                results[result.getIndex()] = result;
+            }
+        });
+        // Note: the pool's join gives us visibility on what the tasks wrote
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Parses all inputs and waits for the whole batch, without holding on to the results:
+     * for huge batches, the handler can consume each playlist and drop it.
+     */
+    public void forEach(Collection<Input> inputs, ResultHandler handler) {
+        Input[] array = inputs.toArray(new Input[0]);
+        if (array.length == 0) {
+            return;
+        }
+        this.pool.invoke(new ParseTask(array, 0, array.length, handler, this.lazyAttributes));
+    }
+
+    private class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Input[] inputs;
+        private final int start;
+        private final int end;
+        private final ResultHandler handler;
+        private final boolean lazy;
+
+        ParseTask(Input[] inputs, int start, int end, ResultHandler handler, boolean lazy) {
+            this.inputs = inputs;
+            this.start = start;
+            this.end = end;
+            this.handler = handler;
+            this.lazy = lazy;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= HlsBatchParser.this.splitThreshold) {
+                for (int i = this.start; i < this.end; i++) {
+                    this.handler.onResult(parseOne(i, this.inputs[i], this.lazy));
+                }
+                return;
+            }
+            int middle = (this.start + this.end) >>> 1;
+            invokeAll(
+                    new ParseTask(this.inputs, this.start, middle, this.handler, this.lazy),
+                    new ParseTask(this.inputs, middle, this.end, this.handler, this.lazy)
+            );
+        }
+    }
+
+    private static Result parseOne(int index, Input input, boolean lazy) {
+        try {
+            hlsM3u8Parser parser;
+            if (input.path != null) {
+                parser = new hlsM3u8Parser(input.path, input.context, false);
+            } else {
+                parser = new hlsM3u8Parser(input.stream, input.context, false);
+            }
+            parser.setLazyAttributes(lazy);
+            parser.parse();
+            return new Result(index, input, parser, null);
+        } catch (RuntimeException re) {
+            return new Result(index, input, null, re);
+        }
+    }
+
+    /**
+     * @return Inputs for all the given files, resolved against the same context
+     */
+    public static List<Input> inputsOf(Collection<Path> paths, URL context) {
+        List<Input> inputs = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            inputs.add(Input.of(path, context));
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.EntryType;
+import com.mkyong.service.hlsM3u8Parser.FileType;
+
+/**
+ * Hook for instrumenting parsing, fetching and caching, e.g to feed a Micrometer / Dropwizard registry:
+ * extend this class, override what you need, and install it with HlsMetrics.set(...).
+ *
+ * The default is a no-op whose isEnabled() returns false: the instrumented code checks that once per parse / fetch
+ * and then skips the time measurements and counting altogether.
+ *
+ * Implementations are called from any thread (parsing threads, OkHttp threads...) and must be thread-safe.
+ */
+public abstract class HlsMetrics {
+
+    /**
+     * Does nothing, and tells the instrumented code not to even measure
+     */
+    public static final HlsMetrics NOOP = new HlsMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    private static volatile HlsMetrics current = NOOP;
+
+    /**
+     * @return The installed metrics, NOOP unless set(HlsMetrics) was called
+     */
+    public static HlsMetrics get() {
+        return current;
+    }
+
+    /**
+     * @param metrics Metrics to report to from now on, null to go back to NOOP
+     */
+    public static void set(HlsMetrics metrics) {
+        current = metrics != null ? metrics : NOOP;
+    }
+
+    /**
+     * @return False to skip measuring altogether
+     */
+    public boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Called once per successful parse
+     * @param fileType Type of the playlist, null if it couldn't be told (e.g empty playlist)
+     * @param durationNanos Time spent parsing, including reading the input
+     * @param linesCount Amount of lines read
+     * @param charsCount Amount of chars read
+     */
+    public void onParse(FileType fileType, long durationNanos, long linesCount, long charsCount) {
+    }
+
+    /**
+     * Called once per successful parse and entry type found in the playlist
+     * @param count Amount of entries of that type
+     */
+    public void onEntries(EntryType type, int count) {
+    }
+
+    /**
+     * Called when parsing failed
+     */
+    public void onParseError(RuntimeException error) {
+    }
+
+    /**
+     * Called once per HTTP fetch of a playlist, successful or not
+     * @param durationNanos Time from sending the request to having handled the response
+     * @param bytesCount Size of the body received, -1 if unknown (e.g failed before receiving it)
+     */
+    public void onFetch(String url, long durationNanos, long bytesCount, boolean success) {
+    }
+
+    /**
+     * Called on every lookup in a HlsPlaylistCache
+     * @param hit True if a fresh playlist was found
+     */
+    public void onCacheLookup(boolean hit) {
+    }
+}
@@ -0,0 +1,300 @@
+package com.mkyong.service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cache of parsed playlists, keyed by their normalized URL.
+ *
+ * - Live media playlists expire after their target duration (EXT-X-TARGETDURATION), i.e about when the server
+ *   publishes a new segment. Master playlists and ended media playlists use the configured TTL.
+ * - The cache is bounded by the total size of the cached playlists (in chars of playlist text); the least recently
+ *   used ones are evicted first.
+ * - Loading is single-flight: while a URL is being fetched, further requests for it wait on the same future instead
+ *   of triggering their own fetch and parse.
+ *
+ * When the query is ignored (e.g it only carries a listeningSessionID), the cached playlist is the one loaded by
+ * whichever request came first. Its entries were resolved against that request's URL.
+ *
+ * Thread-safe.
+ */
+public class HlsPlaylistCache {
+
+    public static final long DEFAULT_MAX_WEIGHT = 64 * 1024 * 1024;
+    public static final long DEFAULT_TTL_MS = 60 * 1000;
+
+    /**
+     * Loads a playlist on a cache miss, e.g HlsPlaylistFetcher::fetch
+     */
+    public interface Loader {
+        CompletableFuture<hlsM3u8Parser> load(String url);
+    }
+
+    private static class CacheEntry {
+        final ParsedPlaylist playlist;
+        final long weight;
+        final long expiresAtNanos;
+
+        CacheEntry(ParsedPlaylist playlist, long weight, long expiresAtNanos) {
+            this.playlist = playlist;
+            this.weight = weight;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * @param ignoreQuery Drop the query string, for URLs which only carry session parameters in there
+     * @return URL with lower case scheme and host, without default port, fragment nor dot segments.
+     * Returned unchanged if it can't be parsed as an absolute hierarchical URI.
+     */
+    public static String normalizeUrl(String url, boolean ignoreQuery) {
+        URI uri;
+        try {
+            uri = new URI(url.trim()).normalize();
+        } catch (URISyntaxException use) {
+            return url;
+        }
+        if (!uri.isAbsolute() || uri.isOpaque() || uri.getHost() == null) {
+            return url;
+        }
+
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+        if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+            port = -1;
+        }
+        String path = uri.getRawPath();
+
+        StringBuilder sb = new StringBuilder(url.length());
+        sb.append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            sb.append(uri.getRawUserInfo()).append('@');
+        }
+        sb.append(uri.getHost().toLowerCase(Locale.ROOT));
+        if (port != -1) {
+            sb.append(':').append(port);
+        }
+        sb.append(path == null || path.isEmpty() ? "/" : path);
+        if (!ignoreQuery && uri.getRawQuery() != null) {
+            sb.append('?').append(uri.getRawQuery());
+        }
+        return sb.toString();
+    }
+
+    private final Loader loader;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final boolean ignoreQuery;
+
+    // Access-ordered, guarded by itself
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long hitsCount = 0;
+    private long missesCount = 0;
+
+    private final ConcurrentHashMap<String, CompletableFuture<ParsedPlaylist>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Cache loading through the given fetcher, with the default size and TTL
+     */
+    public HlsPlaylistCache(HlsPlaylistFetcher fetcher, boolean ignoreQuery) {
+        this(fetcher::fetch, DEFAULT_MAX_WEIGHT, DEFAULT_TTL_MS, ignoreQuery);
+    }
+
+    /**
+     * @param maxWeight Maximum total size of the cached playlists, in chars of playlist text
+     * @param ttlMs How long master playlists, ended media playlists, and live ones without target duration are kept
+     * @param ignoreQuery See normalizeUrl(String, boolean)
+     */
+    public HlsPlaylistCache(Loader loader, long maxWeight, long ttlMs, boolean ignoreQuery) {
+        this.loader = loader;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.ignoreQuery = ignoreQuery;
+    }
+
+    /**
+     * @return Future of the cached playlist if it's still fresh (already completed then), otherwise of the playlist
+     * being loaded. Fails like the loader does, failures are not cached. Every caller gets a future of its own:
+     * cancelling or completing it doesn't affect the load nor the other callers waiting for it.
+     */
+    public CompletableFuture<ParsedPlaylist> get(final String url) {
+        final String key = normalizeUrl(url, this.ignoreQuery);
+
+        ParsedPlaylist cached = this.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final CompletableFuture<ParsedPlaylist> future = new CompletableFuture<>();
+        CompletableFuture<ParsedPlaylist> pending = this.loading.putIfAbsent(key, future);
+        if (pending != null) {
+            return copyOf(pending);
+        }
+
+        // Note: Another load may have completed since our lookup above, it puts the playlist before leaving the
+        //       loading map. Look again now that we own the key, rather than fetching it a second time.
+        //       This request was counted as a miss already, the second lookup isn't counted.
+        cached = this.getIfPresent(key, false);
+        if (cached != null) {
+            this.loading.remove(key, future);
+            future.complete(cached);
+            return copyOf(future);
+        }
+
+        CompletableFuture<hlsM3u8Parser> loaded;
+        try {
+            loaded = this.loader.load(url);
+        } catch (RuntimeException re) {
+            this.loading.remove(key, future);
+            future.completeExceptionally(re);
+            return copyOf(future);
+        }
+
+        loaded.whenComplete((parser, error) -> {
+            if (error != null) {
+                this.loading.remove(key, future);
+                future.completeExceptionally(error);
+                return;
+            }
+            ParsedPlaylist playlist;
+            try {
+                playlist = new ParsedPlaylist(parser);
+                this.put(key, playlist);
+            } catch (RuntimeException re) {
+                this.loading.remove(key, future);
+                future.completeExceptionally(re);
+                return;
+            }
+            // Only now, so that there is no window in which neither the cache nor the loading map has it
+            this.loading.remove(key, future);
+            future.complete(playlist);
+        });
+
+        return copyOf(future);
+    }
+
+    /**
+     * @return A future completed like the shared one, which callers can't complete (nor cancel) for each other
+     */
+    private static CompletableFuture<ParsedPlaylist> copyOf(CompletableFuture<ParsedPlaylist> shared) {
+        // Note: Not thenApply, its failures would come wrapped in a CompletionException
+        final CompletableFuture<ParsedPlaylist> copy = new CompletableFuture<>();
+        shared.whenComplete((playlist, error) -> {
+            if (error != null) {
+                copy.completeExceptionally(error);
+            } else {
+                copy.complete(playlist);
+            }
+        });
+        return copy;
+    }
+
+    public void invalidate(String url) {
+        String key = normalizeUrl(url, this.ignoreQuery);
+        synchronized (this.entries) {
+            CacheEntry removed = this.entries.remove(key);
+            if (removed != null) {
+                this.weight -= removed.weight;
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.weight = 0;
+        }
+    }
+
+    /**
+     * @return Amount of cached playlists, including expired ones which haven't been asked for since
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getWeight() {
+        synchronized (this.entries) {
+            return this.weight;
+        }
+    }
+
+    public long getHitsCount() {
+        synchronized (this.entries) {
+            return this.hitsCount;
+        }
+    }
+
+    /**
+     * @return Amount of get() calls which didn't find a fresh playlist, including those which joined a pending load
+     */
+    public long getMissesCount() {
+        synchronized (this.entries) {
+            return this.missesCount;
+        }
+    }
+
+    private ParsedPlaylist getIfPresent(String key) {
+        return this.getIfPresent(key, true);
+    }
+
+    /**
+     * @param count Whether the lookup counts in the hits and misses (and metrics)
+     */
+    private ParsedPlaylist getIfPresent(String key, boolean count) {
+        synchronized (this.entries) {
+            CacheEntry entry = this.entries.get(key);
+            boolean hit = entry != null && entry.expiresAtNanos - System.nanoTime() > 0;
+            if (!count) {
+                return hit ? entry.playlist : null;
+            }
+            if (hit) {
+                this.hitsCount++;
+            } else {
+                if (entry != null) {
+                    this.entries.remove(key);
+                    this.weight -= entry.weight;
+                }
+                this.missesCount++;
+            }
+            HlsMetrics metrics = HlsMetrics.get();
+            if (metrics.isEnabled()) {
+                metrics.onCacheLookup(hit);
+            }
+            return hit ? entry.playlist : null;
+        }
+    }
+
+    private void put(String key, ParsedPlaylist playlist) {
+        long ttl = this.ttlNanos;
+        if (playlist.isLive() && playlist.getTargetDuration() > 0) {
+            ttl = TimeUnit.SECONDS.toNanos(playlist.getTargetDuration());
+        }
+        CacheEntry entry = new CacheEntry(playlist, Math.max(1, playlist.getSourceLength()), System.nanoTime() + ttl);
+
+        synchronized (this.entries) {
+            CacheEntry previous = this.entries.put(key, entry);
+            if (previous != null) {
+                this.weight -= previous.weight;
+            }
+            this.weight += entry.weight;
+
+            // Least recently used first. Note: a playlist heavier than maxWeight on its own doesn't stay
+            Iterator<Map.Entry<String, CacheEntry>> it = this.entries.entrySet().iterator();
+            while (this.weight > this.maxWeight && it.hasNext()) {
+                this.weight -= it.next().getValue().weight;
+                it.remove();
+            }
+        }
+    }
+}
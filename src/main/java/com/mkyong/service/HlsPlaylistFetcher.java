@@ -0,0 +1,314 @@
+package com.mkyong.service;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches and parses playlists asynchronously over a shared pool of keep-alive connections.
+ *
+ * Unlike JavaHttpUrlConnectionReader, the caller is never blocked: requests are run by the OkHttp dispatcher,
+ * and the response body is streamed straight into the parser (no intermediate String of the whole playlist).
+ * Relative URIs are resolved against the final URL of the response, i.e after redirects.
+ *
+ * Instances are thread-safe. Share one instance (see getDefault()) so that all requests share the same
+ * connection pool.
+ */
+public class HlsPlaylistFetcher {
+
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 5 * 1000;
+    public static final long DEFAULT_READ_TIMEOUT_MS = 15 * 1000;
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 256;
+    public static final long DEFAULT_KEEP_ALIVE_MS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_REQUESTS = 1024;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 64;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    /**
+     * Consumes the body of a successful response, see fetchWith(String, BodyHandler).
+     */
+    public interface BodyHandler<T> {
+        /**
+         * @param body Response body, closed by the fetcher once this returns
+         * @param context Final URL of the response, to resolve relative URIs against
+         */
+        T handle(InputStream body, URL context) throws IOException;
+    }
+
+    private static class DefaultHolder {
+        static final HlsPlaylistFetcher INSTANCE = new HlsPlaylistFetcher();
+    }
+
+    /**
+     * @return Process-wide fetcher with the default settings
+     */
+    public static HlsPlaylistFetcher getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * @return A client tuned for polling many playlists: large keep-alive pool, connect timeout, and more
+     * concurrent requests per host than the OkHttp defaults (playlists usually come from a few hosts).
+     */
+    public static OkHttpClient createDefaultClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(DEFAULT_MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(DEFAULT_MAX_REQUESTS_PER_HOST);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(DEFAULT_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(DEFAULT_READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private final OkHttpClient client;
+    private volatile boolean lazyAttributes = false;
+
+    public HlsPlaylistFetcher() {
+        this(createDefaultClient());
+    }
+
+    /**
+     * @param client Client to use, e.g to share its pool with the rest of the application
+     */
+    public HlsPlaylistFetcher(OkHttpClient client) {
+        this.client = client;
+    }
+
+    public OkHttpClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * @see hlsM3u8Parser#setLazyAttributes(boolean)
+     */
+    public void setLazyAttributes(boolean lazyAttributes) {
+        this.lazyAttributes = lazyAttributes;
+    }
+
+    /**
+     * @return Future of the parsed playlist. Fails with an IOException on network errors or non-2xx responses.
+     * Cancelling the future cancels the request.
+     */
+    public CompletableFuture<hlsM3u8Parser> fetch(String url) {
+        return this.fetch(url, null);
+    }
+
+    /**
+     * Streaming variant: entries are handed to the listener while the body is being received,
+     * see hlsM3u8Parser.parse(EntryListener). The listener is called from an OkHttp thread.
+     * @param listener Receives the entries, or null to collect them in the parser
+     */
+    public CompletableFuture<hlsM3u8Parser> fetch(String url, final hlsM3u8Parser.EntryListener listener) {
+        final boolean lazy = this.lazyAttributes;
+        return this.fetchWith(url, new BodyHandler<hlsM3u8Parser>() {
+            @Override
+            public hlsM3u8Parser handle(InputStream body, URL context) {
+                hlsM3u8Parser parser = new hlsM3u8Parser(body, context, false);
+                parser.setLazyAttributes(lazy);
+                parser.parse(listener);
+                return parser;
+            }
+        });
+    }
+
+    /**
+     * Polling variant: sends a conditional request based on the previous result, and skips parsing when the
+     * playlist didn't change. That is the case when the server answers 304 (If-None-Match / If-Modified-Since),
+     * or when the body hashes the same as before (for servers which don't support validators).
+     * Note: Unlike fetch(String), the body is received completely before being parsed, since we need its hash first.
+     * @param previous Result of the previous poll of this URL, or null for the first one
+     * @return Future of the result, isModified() tells whether previous.getParser() is still current
+     */
+    public CompletableFuture<FetchedPlaylist> fetchIfChanged(String url, final FetchedPlaylist previous) {
+        Request.Builder builder;
+        try {
+            builder = new Request.Builder().url(url).get();
+        } catch (IllegalArgumentException iae) {
+            CompletableFuture<FetchedPlaylist> future = new CompletableFuture<>();
+            future.completeExceptionally(iae);
+            return future;
+        }
+        if (previous != null && previous.getEtag() != null) {
+            builder.header("If-None-Match", previous.getEtag());
+        }
+        if (previous != null && previous.getLastModified() != null) {
+            builder.header("If-Modified-Since", previous.getLastModified());
+        }
+
+        final boolean lazy = this.lazyAttributes;
+        return this.enqueue(builder.build(), new ResponseHandler<FetchedPlaylist>() {
+            @Override
+            public FetchedPlaylist handle(Response response, FetchReport report) throws IOException {
+                String etag = response.header("ETag");
+                String lastModified = response.header("Last-Modified");
+
+                if (response.code() == HTTP_NOT_MODIFIED && previous != null) {
+                    if (report != null) {
+                        report.bytesCount = 0;
+                    }
+                    return previous.unchanged(etag, lastModified);
+                }
+                ResponseBody body = checkedBody(response);
+
+                byte[] data = body.bytes();
+                if (report != null) {
+                    report.bytesCount = data.length;
+                }
+                long hash = FetchedPlaylist.hash(data, 0, data.length);
+                if (previous != null && previous.hasSameContent(hash, data.length)) {
+                    return previous.unchanged(etag, lastModified);
+                }
+
+                hlsM3u8Parser parser = new hlsM3u8Parser(new ByteArrayInputStream(data), response.request().url().url(), false);
+                parser.setLazyAttributes(lazy);
+                parser.parse();
+                return new FetchedPlaylist(parser, etag, lastModified, hash, data.length, true);
+            }
+        });
+    }
+
+    /**
+     * Generic variant, for callers which need to set up the parsing themselves (see LivePlaylistRefresher).
+     * @param handler Called from an OkHttp thread with the body of the response, unless it's not a 2xx one
+     * @return Future of what the handler returns. Fails with an IOException on network errors or non-2xx responses.
+     * Cancelling the future cancels the request.
+     */
+    public <T> CompletableFuture<T> fetchWith(String url, final BodyHandler<T> handler) {
+        Request request;
+        try {
+            request = new Request.Builder().url(url).get().build();
+        } catch (IllegalArgumentException iae) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(iae);
+            return future;
+        }
+
+        return this.enqueue(request, new ResponseHandler<T>() {
+            @Override
+            public T handle(Response response, FetchReport report) throws IOException {
+                InputStream body = checkedBody(response).byteStream();
+                return handler.handle(report != null ? report.count(body) : body, response.request().url().url());
+            }
+        });
+    }
+
+    /**
+     * What the handlers tell about a fetch for the metrics, only there when they are enabled
+     */
+    private static final class FetchReport {
+        long bytesCount = -1;
+
+        InputStream count(InputStream in) {
+            this.bytesCount = 0;
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        FetchReport.this.bytesCount++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        FetchReport.this.bytesCount += n;
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+
+    private interface ResponseHandler<T> {
+        /**
+         * @param report Null unless metrics are enabled
+         */
+        T handle(Response response, FetchReport report) throws IOException;
+    }
+
+    private <T> CompletableFuture<T> enqueue(final Request request, final ResponseHandler<T> handler) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Call call = this.client.newCall(request);
+
+        final HlsMetrics metrics = HlsMetrics.get();
+        final boolean measured = metrics.isEnabled();
+        final long start = measured ? System.nanoTime() : 0;
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                this.report(-1, false);
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                FetchReport report = measured ? new FetchReport() : null;
+                T result;
+                try {
+                    result = handler.handle(response, report);
+                } catch (Throwable e) {
+                    // Note: Throwable, not Exception - a StackOverflowError from the attribute regex
+                    // must not leave the caller waiting on a future nobody completes
+                    this.report(measured ? report.bytesCount : -1, false);
+                    future.completeExceptionally(e);
+                    return;
+                } finally {
+                    response.close();
+                }
+                this.report(measured ? report.bytesCount : -1, true);
+                future.complete(result);
+            }
+
+            private void report(long bytes, boolean success) {
+                if (!measured) {
+                    return;
+                }
+                try {
+                    metrics.onFetch(request.url().toString(), System.nanoTime() - start, bytes, success);
+                } catch (RuntimeException e) {
+                    // a broken metrics hook must not swallow the fetch result
+                }
+            }
+        });
+
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        return future;
+    }
+
+    private static ResponseBody checkedBody(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new IOException("Unexpected HTTP status " + response.code() + " for " + response.request().url());
+        }
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new IOException("Empty response for " + response.request().url());
+        }
+        return body;
+    }
+}
@@ -0,0 +1,119 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.Codec;
+import com.mkyong.service.hlsM3u8Parser.Resolution;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of the attribute values which keep repeating across playlists (codecs, group ids, names, resolutions...), so
+ * that the parsed entries of all the playlists we keep around share one instance of each instead of a copy per entry.
+ *
+ * The parser goes through the installed pool, see get() / set(HlsValuePool). Each kind of value is bounded by
+ * maxSize: once full, new values are returned as is, not pooled. Values pooled once stay until clear() is called.
+ *
+ * Pooled objects are immutable (codec lists are unmodifiable) since they're shared. Thread-safe.
+ */
+public final class HlsValuePool {
+
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024;
+
+    /**
+     * Pools nothing, e.g for one-off parses of playlists we won't keep
+     */
+    public static final HlsValuePool DISABLED = new HlsValuePool(0);
+
+    private static volatile HlsValuePool current = new HlsValuePool(DEFAULT_MAX_SIZE);
+
+    /**
+     * @return The pool the parser uses
+     */
+    public static HlsValuePool get() {
+        return current;
+    }
+
+    /**
+     * @param pool Pool for the parser to use from now on, null to stop pooling (see DISABLED)
+     */
+    public static void set(HlsValuePool pool) {
+        current = pool != null ? pool : DISABLED;
+    }
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Resolution> resolutions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<Codec>> codecLists = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize Maximum amount of strings, and of resolutions, and of codec lists pooled
+     */
+    public HlsValuePool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The pooled instance equal to value, value itself if it's new and the pool is full
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        return pooled(this.strings, value, value);
+    }
+
+    /**
+     * @param value RESOLUTION attribute, e.g 1280x720
+     * @return Shared Resolution for it
+     * @throws RuntimeException if it's malformed
+     */
+    public Resolution resolution(String value) {
+        Resolution resolution = this.resolutions.get(value);
+        if (resolution != null) {
+            return resolution;
+        }
+        return pooled(this.resolutions, value, Resolution.fromString(value));
+    }
+
+    /**
+     * @param value CODECS attribute (unquoted), e.g avc1.4d401f,mp4a.40.2
+     * @return Unmodifiable list of shared Codec instances (see Codec.of(CodecId)), itself shared
+     */
+    public List<Codec> codecs(String value) {
+        List<Codec> codecs = this.codecLists.get(value);
+        if (codecs != null) {
+            return codecs;
+        }
+        return pooled(this.codecLists, value, Collections.unmodifiableList(Codec.listFromString(value)));
+    }
+
+    /**
+     * @return Amount of values pooled, all kinds together
+     */
+    public int size() {
+        return this.strings.size() + this.resolutions.size() + this.codecLists.size();
+    }
+
+    /**
+     * Empties the pool. Entries parsed before keep their instances, they're just not shared with later ones.
+     */
+    public void clear() {
+        this.strings.clear();
+        this.resolutions.clear();
+        this.codecLists.clear();
+    }
+
+    private <V> V pooled(ConcurrentHashMap<String, V> pool, String key, V value) {
+        V existing = pool.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        // Note: size() is only an estimate under contention, the bound may be exceeded by a few values
+        if (pool.size() >= this.maxSize) {
+            return value;
+        }
+        existing = pool.putIfAbsent(key, value);
+        return existing != null ? existing : value;
+    }
+}
@@ -6,6 +6,10 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
+/**
+ * @deprecated Opens a new connection per call and blocks the caller, use HlsPlaylistFetcher instead.
+ */
+@Deprecated
 public class JavaHttpUrlConnectionReader {
 
     /**
@@ -24,6 +28,11 @@ public class JavaHttpUrlConnectionReader {
         BufferedReader reader = null;
         StringBuilder stringBuilder;
 
+        HlsMetrics metrics = HlsMetrics.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        boolean success = false;
+        long bytesCount = -1;
+
         try
         {
             // create the HttpURLConnection
@@ -49,6 +58,9 @@ public class JavaHttpUrlConnectionReader {
             {
                 stringBuilder.append(line + "\n");
             }
+            success = true;
+            // Note: Counted in chars, we don't see the bytes here
+            bytesCount = stringBuilder.length();
             return stringBuilder.toString();
         }
         catch (Exception e)
@@ -58,6 +70,10 @@ public class JavaHttpUrlConnectionReader {
         }
         finally
         {
+            if (metrics.isEnabled()) {
+                metrics.onFetch(desiredUrl, System.nanoTime() - start, bytesCount, success);
+            }
+
             // close the reader; this can throw an exception too, so
             // wrap it in another try/catch block.
             if (reader != null)
@@ -0,0 +1,226 @@
+package com.mkyong.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps many live media playlists refreshed (see LivePlaylistRefresher), each about once per target duration,
+ * without a thread per playlist:
+ *
+ * - Refreshes are scheduled on a TimerWheel, so tracking another playlist costs a timeout, not a thread.
+ * - Fetches are asynchronous (see HlsPlaylistFetcher), and the listener runs on a small pool.
+ * - Delays get some random jitter, and the first polls are spread over a target duration, so that playlists
+ *   tracked at the same time don't keep hitting the origin at the same time.
+ *
+ * Delays follow RFC 8216 (6.3.4): a target duration after a refresh which brought something new, half of it when
+ * nothing changed. Failed refreshes are retried with an exponential backoff. Playlists which got an EXT-X-ENDLIST
+ * are not polled any more.
+ *
+ * Thread-safe.
+ */
+public class LivePlaylistPoller {
+
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Delay between refreshes until the playlist tells its target duration
+     */
+    public static final int DEFAULT_TARGET_DURATION_S = 6;
+
+    /**
+     * Delays are randomly spread by up to this fraction, in both directions
+     */
+    public static final double JITTER = 0.1;
+
+    public static final long MAX_RETRY_DELAY_MS = 60 * 1000;
+
+    /**
+     * Called from the poller's pool, one call at a time per playlist
+     */
+    public interface Listener {
+        void onRefresh(LivePlaylistRefresher playlist, LivePlaylistRefresher.Delta delta);
+
+        /**
+         * The playlist keeps being polled, with a backoff
+         */
+        void onError(LivePlaylistRefresher playlist, Throwable error);
+
+        /**
+         * The playlist got an EXT-X-ENDLIST and is not polled any more
+         */
+        void onEnded(LivePlaylistRefresher playlist);
+    }
+
+    private static final class Tracked {
+        final LivePlaylistRefresher refresher;
+        volatile TimerWheel.Timeout timeout = null;
+        volatile boolean stopped = false;
+        // Only touched by the refresh in flight
+        int failuresCount = 0;
+
+        Tracked(LivePlaylistRefresher refresher) {
+            this.refresher = refresher;
+        }
+    }
+
+    private final HlsPlaylistFetcher fetcher;
+    private final Listener listener;
+    private final ExecutorService executor;
+    private final TimerWheel wheel;
+    private final ConcurrentHashMap<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+    public LivePlaylistPoller(HlsPlaylistFetcher fetcher, Listener listener) {
+        this(fetcher, listener, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param threads Size of the pool running the listener (parsing happens on the fetcher's threads)
+     */
+    public LivePlaylistPoller(HlsPlaylistFetcher fetcher, Listener listener, int threads) {
+        this.fetcher = fetcher;
+        this.listener = listener;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "hls-poller-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.wheel = new TimerWheel(this.executor);
+    }
+
+    /**
+     * Starts polling the playlist, the first refresh happens within DEFAULT_TARGET_DURATION_S.
+     * @return Its refresher, or the one it already had if it was tracked already
+     */
+    public LivePlaylistRefresher track(String url) {
+        Tracked playlist = new Tracked(new LivePlaylistRefresher(url));
+        Tracked previous = this.tracked.putIfAbsent(url, playlist);
+        if (previous != null) {
+            return previous.refresher;
+        }
+        long spread = TimeUnit.SECONDS.toMillis(DEFAULT_TARGET_DURATION_S);
+        this.schedule(playlist, ThreadLocalRandom.current().nextLong(spread));
+        return playlist.refresher;
+    }
+
+    /**
+     * Stops polling the playlist. A refresh in flight still completes, but doesn't reach the listener.
+     * @return False if it wasn't tracked
+     */
+    public boolean untrack(String url) {
+        Tracked playlist = this.tracked.remove(url);
+        if (playlist == null) {
+            return false;
+        }
+        this.stop(playlist);
+        return true;
+    }
+
+    /**
+     * @return Amount of playlists being polled
+     */
+    public int size() {
+        return this.tracked.size();
+    }
+
+    /**
+     * Stops polling all playlists, and the threads of the poller
+     */
+    public void shutdown() {
+        for (Tracked playlist : this.tracked.values()) {
+            this.stop(playlist);
+        }
+        this.tracked.clear();
+        this.wheel.stop();
+        this.executor.shutdown();
+    }
+
+    /**
+     * @param targetDuration Seconds, see LivePlaylistRefresher.getTargetDuration()
+     * @param changed False if the last refresh brought nothing new
+     * @param failuresCount Amount of failed refreshes in a row
+     * @return Delay before the next refresh, without jitter
+     */
+    static long nextDelayMillis(int targetDuration, boolean changed, int failuresCount) {
+        long delay = TimeUnit.SECONDS.toMillis(targetDuration > 0 ? targetDuration : DEFAULT_TARGET_DURATION_S);
+        if (failuresCount > 0) {
+            return Math.min(delay << Math.min(failuresCount - 1, 16), MAX_RETRY_DELAY_MS);
+        }
+        return changed ? delay : delay / 2;
+    }
+
+    private void schedule(final Tracked playlist, long delayMs) {
+        if (playlist.stopped) {
+            return;
+        }
+        playlist.timeout = this.wheel.schedule(() -> this.poll(playlist), delayMs, TimeUnit.MILLISECONDS);
+        // Note: untrack() might have missed the timeout we just set
+        if (playlist.stopped) {
+            playlist.timeout.cancel();
+        }
+    }
+
+    private void stop(Tracked playlist) {
+        playlist.stopped = true;
+        TimerWheel.Timeout timeout = playlist.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void poll(final Tracked playlist) {
+        if (playlist.stopped) {
+            return;
+        }
+        CompletableFuture<LivePlaylistRefresher.Delta> refreshed;
+        try {
+            refreshed = playlist.refresher.refresh(this.fetcher);
+        } catch (RuntimeException re) {
+            refreshed = new CompletableFuture<>();
+            refreshed.completeExceptionally(re);
+        }
+        refreshed.whenCompleteAsync((delta, error) -> {
+            if (playlist.stopped) {
+                return;
+            }
+            LivePlaylistRefresher refresher = playlist.refresher;
+            boolean changed = false;
+            boolean ended = false;
+            try {
+                if (error != null) {
+                    playlist.failuresCount++;
+                    this.listener.onError(refresher, error);
+                } else {
+                    playlist.failuresCount = 0;
+                    changed = !delta.getAdded().isEmpty() || delta.getEvicted() > 0;
+                    ended = refresher.isEnded();
+                    if (ended) {
+                        this.tracked.remove(refresher.getUrl(), playlist);
+                        playlist.stopped = true;
+                    }
+                    this.listener.onRefresh(refresher, delta);
+                    if (ended) {
+                        this.listener.onEnded(refresher);
+                    }
+                }
+            } finally {
+                // Even if the listener failed, it's not a reason to stop polling
+                if (!ended) {
+                    long delay = nextDelayMillis(refresher.getTargetDuration(), changed, playlist.failuresCount);
+                    double jitter = JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+                    this.schedule(playlist, delay + (long) (delay * jitter));
+                }
+            }
+        }, this.executor);
+    }
+}
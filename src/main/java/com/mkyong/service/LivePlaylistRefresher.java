@@ -0,0 +1,238 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.Entry;
+import com.mkyong.service.hlsM3u8Parser.MediaInfoEntry;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the sliding window of segments of a live media playlist up to date.
+ *
+ * On every refresh, the media sequence tells us which segments we already hold: those are skipped by the parser
+ * (see hlsM3u8Parser.setSegmentFilter), only the new ones get entries, and the ones which slid out of the window
+ * are evicted. So the cost of a refresh grows with the amount of new segments, not with the size of the playlist
+ * (apart from classifying the lines, which we can't avoid).
+ *
+ * If the media sequence goes backwards (e.g the encoder was restarted), we start over with the whole new window.
+ *
+ * The window is indexed by time and sequence number (see SegmentIndex), the index is updated along with it.
+ *
+ * Thread-safe.
+ */
+public class LivePlaylistRefresher {
+
+    /**
+     * Outcome of one refresh
+     */
+    public static class Delta {
+        private final List<MediaInfoEntry> added;
+        private final int evicted;
+        private final boolean reset;
+
+        Delta(List<MediaInfoEntry> added, int evicted, boolean reset) {
+            this.added = Collections.unmodifiableList(added);
+            this.evicted = evicted;
+            this.reset = reset;
+        }
+
+        /**
+         * @return New segments, in playlist order
+         */
+        public List<MediaInfoEntry> getAdded() {
+            return this.added;
+        }
+
+        /**
+         * @return Amount of segments which were dropped from the head of the window
+         */
+        public int getEvicted() {
+            return this.evicted;
+        }
+
+        /**
+         * @return True if the media sequence went backwards and the window was rebuilt from scratch
+         */
+        public boolean isReset() {
+            return this.reset;
+        }
+    }
+
+    private final String url;
+
+    private final ArrayList<MediaInfoEntry> segments = new ArrayList<>();
+    private final SegmentIndex index = new SegmentIndex();
+    // Sequence number of the next segment we don't have yet
+    private long nextSequence = 0;
+    private boolean ended = false;
+    private int targetDuration = -1;
+    private int refreshesCount = 0;
+
+    /**
+     * @param url Playlist to refresh, only needed for refresh(HlsPlaylistFetcher)
+     */
+    public LivePlaylistRefresher(String url) {
+        this.url = url;
+    }
+
+    /**
+     * Downloads the playlist and applies it, see refresh(InputStream, URL).
+     */
+    public CompletableFuture<Delta> refresh(HlsPlaylistFetcher fetcher) {
+        return fetcher.fetchWith(this.url, this::refresh);
+    }
+
+    /**
+     * Parses a new version of the playlist and updates the window.
+     * @param in Playlist data, read until the end but not closed
+     * @param context URL to resolve the segment URIs against
+     */
+    public synchronized Delta refresh(InputStream in, URL context) {
+        final long firstHeld = this.getFirstSequence();
+        final long threshold = this.nextSequence;
+        final boolean[] reset = {false};
+        final boolean[] firstSegment = {true};
+
+        hlsM3u8Parser parser = new hlsM3u8Parser(in, context, false);
+        parser.setSegmentFilter(sequence -> {
+            if (firstSegment[0]) {
+                firstSegment[0] = false;
+                // The first segment carries the media sequence of the playlist
+                reset[0] = firstHeld >= 0 && sequence < firstHeld;
+            }
+            return reset[0] || sequence >= threshold;
+        });
+
+        final ArrayList<MediaInfoEntry> added = new ArrayList<>();
+        parser.parse(new hlsM3u8Parser.EntryListener() {
+            @Override
+            public void onEntry(Entry entry) {
+                if (entry instanceof MediaInfoEntry) {
+                    added.add((MediaInfoEntry) entry);
+                }
+            }
+        });
+
+        if (parser.getFileType() == hlsM3u8Parser.FileType.MASTER_PLAYLIST) {
+            throw new RuntimeException("Expected a media playlist but got a master playlist");
+        }
+
+        int evicted = 0;
+        if (reset[0]) {
+            evicted = this.segments.size();
+            this.segments.clear();
+            this.index.clear();
+        } else {
+            // Everything before the first segment of the new playlist slid out of the window
+            long windowStart = parser.getMediaSequence();
+            while (evicted < this.segments.size() && this.segments.get(evicted).getSequence() < windowStart) {
+                evicted++;
+            }
+            this.segments.subList(0, evicted).clear();
+            this.index.removeFirst(evicted);
+        }
+
+        // Note: if we polled too late and missed segments, the window was emptied above and the timeline goes on
+        // without their durations
+        for (MediaInfoEntry segment : added) {
+            this.index.append(segment.getSequence(), segment.getDuration());
+        }
+        this.segments.addAll(added);
+        if (!added.isEmpty()) {
+            this.nextSequence = added.get(added.size() - 1).getSequence() + 1;
+        } else if (reset[0]) {
+            this.nextSequence = parser.getMediaSequence();
+        }
+        this.ended = parser.hasEndList();
+        this.targetDuration = parser.getTargetDuration();
+        this.refreshesCount++;
+
+        return new Delta(added, evicted, reset[0]);
+    }
+
+    /**
+     * @return Copy of the current window, oldest segment first
+     */
+    public synchronized List<MediaInfoEntry> getSegments() {
+        return new ArrayList<>(this.segments);
+    }
+
+    public synchronized int getSegmentsCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * @return Sequence number of the oldest segment we hold, or -1 if we hold none
+     */
+    public synchronized long getFirstSequence() {
+        return this.segments.isEmpty() ? -1 : this.segments.get(0).getSequence();
+    }
+
+    /**
+     * @return Sequence number of the newest segment we hold, or -1 if we hold none
+     */
+    public synchronized long getLastSequence() {
+        return this.segments.isEmpty() ? -1 : this.segments.get(this.segments.size() - 1).getSequence();
+    }
+
+    /**
+     * O(1)
+     * @return Segment with that sequence number, or null if it's not in the window
+     */
+    public synchronized MediaInfoEntry getSegment(long sequence) {
+        int position = this.index.positionOfSequence(sequence);
+        return position < 0 ? null : this.segments.get(position);
+    }
+
+    /**
+     * O(log n)
+     * @param time Seconds on the timeline of the window, which starts at 0 with the first segment we got
+     *             (see getStartTime(), getEndTime())
+     * @return Segment playing at that time, or null if the time is outside of the window
+     */
+    public synchronized MediaInfoEntry getSegmentAt(double time) {
+        int position = this.index.positionOfTime(time);
+        return position < 0 ? null : this.segments.get(position);
+    }
+
+    /**
+     * @return Start time of the oldest segment we hold, see getSegmentAt(double)
+     */
+    public synchronized double getStartTime() {
+        return this.index.getStartTime();
+    }
+
+    /**
+     * @return End time of the newest segment we hold, see getSegmentAt(double)
+     */
+    public synchronized double getEndTime() {
+        return this.index.getEndTime();
+    }
+
+    /**
+     * @return True once the playlist got an EXT-X-ENDLIST, refreshing it is pointless then
+     */
+    public synchronized boolean isEnded() {
+        return this.ended;
+    }
+
+    /**
+     * @return EXT-X-TARGETDURATION of the last refresh, i.e about how often the playlist gets a new segment.
+     * -1 before the first refresh or if the playlist doesn't tell.
+     */
+    public synchronized int getTargetDuration() {
+        return this.targetDuration;
+    }
+
+    public synchronized int getRefreshesCount() {
+        return this.refreshesCount;
+    }
+
+    public String getUrl() {
+        return this.url;
+    }
+}
@@ -0,0 +1,178 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.EntryType;
+
+/**
+ * Hand-written line classifier for M3U8 data. It works on any CharSequence (String, CharBuffer, ...)
+ * and never allocates: no regex matching and no intermediate strings.
+ *
+ * The rules are exactly those of hlsM3u8Parser.ENTRY_REGEX and hlsM3u8Parser.COMMENT_REGEX,
+ * so the results are the same as with the regex based classification we had before.
+ */
+public final class M3u8Tokenizer {
+
+    public enum LineType {
+        /**
+         * An entry (#SOME-TOKEN or #SOME-TOKEN:XXXX), see hlsM3u8Parser.ENTRY_REGEX
+         */
+        TAG,
+        /**
+         * Line starting with ##, see hlsM3u8Parser.COMMENT_REGEX
+         */
+        COMMENT,
+        /**
+         * Anything else not starting with #
+         */
+        URI,
+        BLANK,
+        /**
+         * Starts with # but is neither a valid entry nor a comment
+         */
+        INVALID
+    }
+
+    private static final EntryType[] ENTRY_TYPES = EntryType.values();
+
+    private M3u8Tokenizer() {}
+
+    public static LineType classify(CharSequence line) {
+        int length = line.length();
+        if (length == 0) {
+            return LineType.BLANK;
+        }
+        if (line.charAt(0) != '#') {
+            return LineType.URI;
+        }
+        if (isTag(line)) {
+            return LineType.TAG;
+        }
+        if (isComment(line)) {
+            return LineType.COMMENT;
+        }
+        return LineType.INVALID;
+    }
+
+    /**
+     * @return True when the line is an entry, same as matching hlsM3u8Parser.ENTRY_REGEX
+     */
+    public static boolean isTag(CharSequence line) {
+        int tagEnd = tagNameEnd(line);
+        if (tagEnd < 0) {
+            return false;
+        }
+        int length = line.length();
+        if (tagEnd == length) {
+            return true;
+        }
+        // there must be at least one value char behind the colon
+        if (line.charAt(tagEnd) != ':' || tagEnd + 1 == length) {
+            return false;
+        }
+        for (int i = tagEnd + 1; i < length; i++) {
+            if (!isValueChar(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True when the line is a comment, same as matching hlsM3u8Parser.COMMENT_REGEX
+     */
+    public static boolean isComment(CharSequence line) {
+        int length = line.length();
+        if (length < 2 || line.charAt(0) != '#' || line.charAt(1) != '#') {
+            return false;
+        }
+        for (int i = 2; i < length; i++) {
+            if (isLineTerminator(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Index right after the tag name (where the colon is expected), or -1 if the line doesn't
+     * start with a tag name (#SOME-TOKEN).
+     * Note: This only looks at the tag name, use isTag to validate the whole line.
+     */
+    public static int tagNameEnd(CharSequence line) {
+        int length = line.length();
+        if (length < 2 || line.charAt(0) != '#') {
+            return -1;
+        }
+        int i = 1;
+        while (i < length && isTagChar(line.charAt(i))) {
+            i++;
+        }
+        return i > 1 ? i : -1;
+    }
+
+    /**
+     * Identifies the entry type from the tag name without creating a string. Like EntryType.fromString,
+     * dashes in the token are equivalent to the underscores of the enum names.
+     * @return The type or null if the line has no tag name or the tag is unknown
+     */
+    public static EntryType tagType(CharSequence line) {
+        int tagEnd = tagNameEnd(line);
+        if (tagEnd < 0) {
+            return null;
+        }
+        int tagLength = tagEnd - 1;
+        for (EntryType type : ENTRY_TYPES) {
+            String name = type.name();
+            if (name.length() == tagLength && type != EntryType.UNKNOWN && tagNameEquals(line, name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Index of the first value char (behind the colon), or -1 when the entry has no values
+     */
+    public static int valuesStart(CharSequence line) {
+        int tagEnd = tagNameEnd(line);
+        if (tagEnd < 0 || tagEnd + 1 >= line.length() || line.charAt(tagEnd) != ':') {
+            return -1;
+        }
+        return tagEnd + 1;
+    }
+
+    /**
+     * Only meant for error messages, hence allowed to allocate.
+     * @return The tag name in the form EntryType.fromString reports it
+     */
+    static String tagName(CharSequence line) {
+        int tagEnd = tagNameEnd(line);
+        if (tagEnd < 0) {
+            return line.toString();
+        }
+        return line.subSequence(1, tagEnd).toString().replace('-', '_');
+    }
+
+    private static boolean tagNameEquals(CharSequence line, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = line.charAt(i + 1);
+            char n = name.charAt(i);
+            if (c != n && !(c == '-' && n == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTagChar(char c) {
+        return (c >= '1' && c <= '9') || (c >= 'A' && c <= 'Z') || c == '-';
+    }
+
+    private static boolean isValueChar(char c) {
+        // Quoted-strings (URIs, dates, titles...) may hold anything but a line-break
+        return !isLineTerminator(c);
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,68 @@
+package com.mkyong.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CharSequence view on one ASCII line of a (memory-mapped) byte buffer, so that M3u8Tokenizer can classify it
+ * in place. Only meant for lines without any byte >= 0x80, other lines must be decoded as UTF-8.
+ * Reused from one line to the next, not thread-safe.
+ */
+final class MappedLine implements CharSequence {
+
+    private final ByteBuffer buffer;
+    private int start = 0;
+    private int end = 0;
+    private byte[] scratch = new byte[256];
+
+    MappedLine(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    MappedLine set(int start, int end) {
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return this.end - this.start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (this.buffer.get(this.start + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return this.toString().substring(start, end);
+    }
+
+    /**
+     * @return The line as a String, copied through a reused scratch array (never the whole buffer)
+     */
+    @Override
+    public String toString() {
+        return decode(this.start, this.end, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return The bytes in [start, end[ of the underlying buffer, decoded as UTF-8
+     */
+    String decodeUtf8(int start, int end) {
+        return decode(start, end, StandardCharsets.UTF_8);
+    }
+
+    private String decode(int start, int end, java.nio.charset.Charset charset) {
+        int length = end - start;
+        if (length > this.scratch.length) {
+            this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+        }
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(start);
+        view.get(this.scratch, 0, length);
+        return new String(this.scratch, 0, length, charset);
+    }
+}
@@ -0,0 +1,391 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.Entry;
+import com.mkyong.service.hlsM3u8Parser.MediaInfoEntry;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only, columnar representation of the segments of a media playlist: one primitive array per field
+ * instead of one MediaInfoEntry (plus its values list and URL) per segment.
+ *
+ * URIs are kept as text, relative to the context URL whenever possible, all in one shared char array.
+ * java.net.URL objects are only created on demand by getUrl(int).
+ *
+ * Segments are usually contiguous: the sequence number of segment i is getMediaSequence() + i. When they leave gaps
+ * (e.g a segment which failed to parse in lenient mode keeps its sequence number), the sequence numbers are stored.
+ */
+public final class MediaSegmentTable {
+
+    /**
+     * Parses a media playlist straight into a table: entries are handed over by the parser one at a time
+     * (see hlsM3u8Parser.parse(EntryListener)) and dropped once copied, so they never pile up on the heap.
+     * @param parser Parser which has not been parsed yet, without segment filter
+     */
+    public static MediaSegmentTable parse(hlsM3u8Parser parser) {
+        final Builder builder = new Builder(parser.getContext());
+        parser.parse(new hlsM3u8Parser.EntryListener() {
+            @Override
+            public void onEntry(Entry entry) {
+                if (entry instanceof MediaInfoEntry) {
+                    builder.add((MediaInfoEntry) entry);
+                }
+            }
+        });
+        if (parser.getFileType() == hlsM3u8Parser.FileType.MASTER_PLAYLIST) {
+            throw new RuntimeException("Expected a media playlist but got a master playlist");
+        }
+        return builder.build(parser.getMediaSequence());
+    }
+
+    /**
+     * @param segments Segments of an already parsed playlist, e.g hlsM3u8Parser.getMediaInfoEntries()
+     */
+    public static MediaSegmentTable of(List<MediaInfoEntry> segments, URL context) {
+        Builder builder = new Builder(context);
+        for (MediaInfoEntry segment : segments) {
+            builder.add(segment);
+        }
+        return builder.build(0);
+    }
+
+    /**
+     * Appends segments to growable arrays, build() trims them to size.
+     */
+    public static final class Builder {
+        private final URL context;
+        private final String base;
+
+        private int size = 0;
+        private float[] durations = new float[64];
+        private long[] byteRanges = new long[128];
+        private int[] uriOffsets = new int[65];
+        private char[] uriChars = new char[64 * 16];
+        // Sequence number of the first segment, -1 unless added with it. The others only once there's a gap.
+        private long firstSequence = -1;
+        private long[] sequences = null;
+
+        public Builder(URL context) {
+            this.context = context;
+            this.base = baseOf(context);
+        }
+
+        public Builder add(MediaInfoEntry segment) {
+            return this.add(segment.getSequence(), segment.getDuration(), segment.getByteRangeStart(),
+                    segment.getByteRangeEnd(), segment.getUri() == null ? "" : segment.getUri());
+        }
+
+        /**
+         * @param sequence Sequence number of the segment, greater than the one of the previous segment. Ignored if
+         *                 the previous segments were added without theirs.
+         */
+        public Builder add(long sequence, float duration, long byteRangeStart, long byteRangeEnd, String url) {
+            if (this.size == 0) {
+                this.firstSequence = sequence;
+            } else if (this.firstSequence < 0) {
+                return this.add(duration, byteRangeStart, byteRangeEnd, url);
+            } else if (sequence <= this.lastSequence()) {
+                throw new RuntimeException("Segments must come in order: expected a sequence after "
+                        + this.lastSequence() + " but got " + sequence);
+            } else if (this.sequences == null && sequence != this.firstSequence + this.size) {
+                // First gap, from now on we need to keep track of every sequence number
+                this.sequences = new long[this.durations.length];
+                for (int i = 0; i < this.size; i++) {
+                    this.sequences[i] = this.firstSequence + i;
+                }
+            }
+            this.add(duration, byteRangeStart, byteRangeEnd, url);
+            if (this.sequences != null) {
+                this.sequences[this.size - 1] = sequence;
+            }
+            return this;
+        }
+
+        private long lastSequence() {
+            return this.sequences != null ? this.sequences[this.size - 1] : this.firstSequence + this.size - 1;
+        }
+
+        /**
+         * @param byteRangeEnd Last byte of the range (inclusive), -1 if the segment has no byte-range
+         * @param url URL of the segment, stored relative to the context when it can be (relative ones are kept as is)
+         */
+        public Builder add(float duration, long byteRangeStart, long byteRangeEnd, String url) {
+            if (this.size == this.durations.length) {
+                this.durations = Arrays.copyOf(this.durations, this.size * 2);
+                this.byteRanges = Arrays.copyOf(this.byteRanges, this.size * 4);
+                this.uriOffsets = Arrays.copyOf(this.uriOffsets, this.size * 2 + 1);
+                if (this.sequences != null) {
+                    this.sequences = Arrays.copyOf(this.sequences, this.size * 2);
+                }
+            }
+            if (this.sequences != null) {
+                // Follows the previous one, unless add(long, ...) tells otherwise
+                this.sequences[this.size] = this.sequences[this.size - 1] + 1;
+            }
+            this.durations[this.size] = duration;
+            this.byteRanges[2 * this.size] = byteRangeStart;
+            this.byteRanges[2 * this.size + 1] = byteRangeEnd;
+
+            int start = this.uriOffsets[this.size];
+            int from = isRelativeTo(url, this.base) ? this.base.length() : 0;
+            int end = start + url.length() - from;
+            if (end > this.uriChars.length) {
+                this.uriChars = Arrays.copyOf(this.uriChars, Math.max(end, this.uriChars.length * 2));
+            }
+            url.getChars(from, url.length(), this.uriChars, start);
+
+            this.size++;
+            this.uriOffsets[this.size] = end;
+            return this;
+        }
+
+        /**
+         * @param mediaSequence Sequence number of the first segment, when the segments were added without theirs
+         */
+        public MediaSegmentTable build(long mediaSequence) {
+            return new MediaSegmentTable(
+                    this.context,
+                    this.firstSequence >= 0 ? this.firstSequence : mediaSequence,
+                    this.sequences == null ? null : Arrays.copyOf(this.sequences, this.size),
+                    this.size,
+                    Arrays.copyOf(this.durations, this.size),
+                    Arrays.copyOf(this.byteRanges, 2 * this.size),
+                    Arrays.copyOf(this.uriOffsets, this.size + 1),
+                    Arrays.copyOf(this.uriChars, this.uriOffsets[this.size])
+            );
+        }
+    }
+
+    /**
+     * @return The context URL up to its last slash (without query), which relative URIs are appended to. Null if the
+     * context has no path, e.g http://origin.example.com, there's no base then (we must not cut into the authority).
+     */
+    static String baseOf(URL context) {
+        if (context == null) {
+            return null;
+        }
+        String s = context.toString();
+        int end = s.length();
+        int query = s.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = s.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        int slash = s.lastIndexOf('/', end - 1);
+        if (slash < pathStart(s)) {
+            return null;
+        }
+        return s.substring(0, slash + 1);
+    }
+
+    /**
+     * @return Where the path of the URL starts, i.e after scheme://authority (or after scheme: when there's none)
+     */
+    private static int pathStart(String url) {
+        int colon = url.indexOf(':');
+        if (colon < 0 || !url.startsWith("//", colon + 1)) {
+            return colon + 1;
+        }
+        int i = colon + 3;
+        while (i < url.length() && url.charAt(i) != '/' && url.charAt(i) != '?' && url.charAt(i) != '#') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return True if resolving what follows base in url against the context gives url back
+     */
+    static boolean isRelativeTo(String url, String base) {
+        if (base == null || base.isEmpty() || !url.startsWith(base) || url.length() == base.length()) {
+            return false;
+        }
+        // The base must end within the path, e.g not at http:// which any absolute URL starts with
+        if (base.length() <= pathStart(base)) {
+            return false;
+        }
+        // The rest must not look like an absolute URL, a network-path nor an absolute path
+        char first = url.charAt(base.length());
+        if (first == '/' || first == '?' || first == '#') {
+            return false;
+        }
+        for (int i = base.length(); i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == ':') {
+                return false;
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private final URL context;
+    private final long mediaSequence;
+    // Sequence number of segment i, null when they're contiguous
+    private final long[] sequences;
+    private final int size;
+    private final float[] durations;
+    // start and end (inclusive) of segment i at 2 * i and 2 * i + 1
+    private final long[] byteRanges;
+    // URI of segment i is in uriChars[uriOffsets[i], uriOffsets[i + 1][
+    private final int[] uriOffsets;
+    private final char[] uriChars;
+
+    private MediaSegmentTable(URL context, long mediaSequence, long[] sequences, int size, float[] durations,
+                              long[] byteRanges, int[] uriOffsets, char[] uriChars) {
+        this.context = context;
+        this.mediaSequence = mediaSequence;
+        this.sequences = sequences;
+        this.size = size;
+        this.durations = durations;
+        this.byteRanges = byteRanges;
+        this.uriOffsets = uriOffsets;
+        this.uriChars = uriChars;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public URL getContext() {
+        return this.context;
+    }
+
+    /**
+     * @return Sequence number of the first segment
+     */
+    public long getMediaSequence() {
+        return this.mediaSequence;
+    }
+
+    public long getSequence(int index) {
+        this.checkIndex(index);
+        return this.sequences != null ? this.sequences[index] : this.mediaSequence + index;
+    }
+
+    public float getDuration(int index) {
+        this.checkIndex(index);
+        return this.durations[index];
+    }
+
+    public long getByteRangeStart(int index) {
+        this.checkIndex(index);
+        return this.byteRanges[2 * index];
+    }
+
+    /**
+     * @return Last byte index of the range (inclusive), or -1 if the segment has no byte-range
+     */
+    public long getByteRangeEnd(int index) {
+        this.checkIndex(index);
+        return this.byteRanges[2 * index + 1];
+    }
+
+    /**
+     * @return URI of the segment, relative to the context when it was below it
+     */
+    public String getUri(int index) {
+        this.checkIndex(index);
+        return new String(this.uriChars, this.uriOffsets[index], this.uriOffsets[index + 1] - this.uriOffsets[index]);
+    }
+
+    /**
+     * Appends the URI of the segment without creating a String for it
+     */
+    public void appendUri(int index, Utf8Buffer out) {
+        this.checkIndex(index);
+        out.append(this.uriChars, this.uriOffsets[index], this.uriOffsets[index + 1]);
+    }
+
+    /**
+     * @return Absolute URL of the segment, resolved on every call
+     */
+    public URL getUrl(int index) {
+        String uri = this.getUri(index);
+        try {
+            return this.context == null ? new URL(uri) : new URL(this.context, uri);
+        } catch (MalformedURLException mue) {
+            throw new RuntimeException("Failed to resolve segment URI: " + uri, mue);
+        }
+    }
+
+    /**
+     * @return Sum of the segment durations, in seconds
+     */
+    public double getTotalDuration() {
+        double total = 0;
+        for (int i = 0; i < this.size; i++) {
+            total += this.durations[i];
+        }
+        return total;
+    }
+
+    /**
+     * @return A new cursor, positioned before the first segment
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Flat iteration over the segments, without any object per segment:
+     * while (cursor.next()) { cursor.getDuration(); ... }
+     */
+    public final class Cursor {
+        private int index = -1;
+
+        private Cursor() {}
+
+        /**
+         * @return False once past the last segment
+         */
+        public boolean next() {
+            if (this.index < MediaSegmentTable.this.size) {
+                this.index++;
+            }
+            return this.index < MediaSegmentTable.this.size;
+        }
+
+        public int getIndex() {
+            return this.index;
+        }
+
+        public long getSequence() {
+            return MediaSegmentTable.this.getSequence(this.index);
+        }
+
+        public float getDuration() {
+            return MediaSegmentTable.this.getDuration(this.index);
+        }
+
+        public long getByteRangeStart() {
+            return MediaSegmentTable.this.getByteRangeStart(this.index);
+        }
+
+        public long getByteRangeEnd() {
+            return MediaSegmentTable.this.getByteRangeEnd(this.index);
+        }
+
+        public String getUri() {
+            return MediaSegmentTable.this.getUri(this.index);
+        }
+
+        public URL getUrl() {
+            return MediaSegmentTable.this.getUrl(this.index);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("No segment at index " + index + ", size is " + this.size);
+        }
+    }
+}
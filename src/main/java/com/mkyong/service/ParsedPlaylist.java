@@ -0,0 +1,108 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.Entry;
+import com.mkyong.service.hlsM3u8Parser.FileType;
+import com.mkyong.service.hlsM3u8Parser.GroupInfoEntry;
+import com.mkyong.service.hlsM3u8Parser.MediaInfoEntry;
+import com.mkyong.service.hlsM3u8Parser.StreamInfoEntry;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of what a parser found, safe to share between threads and sessions (see HlsPlaylistCache).
+ *
+ * The entry lists are copied, the entries themselves are shared with the parser but frozen: lazy entries (see
+ * hlsM3u8Parser.setLazyAttributes, setLazyUrls) compute here what they'd otherwise compute on first access, and
+ * entries refuse changes from then on, e.g addTrailerToEachURL on the parser throws.
+ * Note: Freezing parses what lazy attributes left for later, it takes their savings away for cached playlists.
+ */
+public final class ParsedPlaylist {
+
+    private final URL context;
+    private final FileType fileType;
+    private final List<Entry> entries;
+    private final List<MediaInfoEntry> mediaInfoEntries;
+    private final List<StreamInfoEntry> streamInfoEntries;
+    private final List<GroupInfoEntry> groupInfoEntries;
+    private final long mediaSequence;
+    private final int targetDuration;
+    private final boolean endList;
+    private final long sourceLength;
+
+    /**
+     * @param parser A parser which parse() has been called on
+     */
+    public ParsedPlaylist(hlsM3u8Parser parser) {
+        this.context = parser.getContext();
+        this.fileType = parser.getFileType();
+        this.entries = Collections.unmodifiableList(new ArrayList<>(parser.getEntries()));
+        this.mediaInfoEntries = Collections.unmodifiableList(new ArrayList<>(parser.getMediaInfoEntries()));
+        this.streamInfoEntries = Collections.unmodifiableList(new ArrayList<>(parser.getStreamInfoEntries()));
+        this.groupInfoEntries = Collections.unmodifiableList(new ArrayList<>(parser.getGroupInfoEntries()));
+        this.mediaSequence = parser.getMediaSequence();
+        this.targetDuration = parser.getTargetDuration();
+        this.endList = parser.hasEndList();
+        this.sourceLength = parser.getSourceLength();
+
+        // Note: Done before the constructor returns, so that the final fields publish the frozen entries safely
+        for (Entry entry : this.entries) {
+            entry.freeze();
+        }
+    }
+
+    /**
+     * @return True for a media playlist which may still get new segments, i.e it needs to be reloaded
+     */
+    public boolean isLive() {
+        return this.fileType == FileType.MEDIA_PLAYLIST && !this.endList;
+    }
+
+    public URL getContext() {
+        return this.context;
+    }
+
+    public FileType getFileType() {
+        return this.fileType;
+    }
+
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    public List<MediaInfoEntry> getMediaInfoEntries() {
+        return this.mediaInfoEntries;
+    }
+
+    public List<StreamInfoEntry> getStreamInfoEntries() {
+        return this.streamInfoEntries;
+    }
+
+    public List<GroupInfoEntry> getGroupInfoEntries() {
+        return this.groupInfoEntries;
+    }
+
+    public long getMediaSequence() {
+        return this.mediaSequence;
+    }
+
+    /**
+     * @return EXT-X-TARGETDURATION in seconds, -1 if the playlist doesn't tell
+     */
+    public int getTargetDuration() {
+        return this.targetDuration;
+    }
+
+    public boolean hasEndList() {
+        return this.endList;
+    }
+
+    /**
+     * @return Size of the playlist text in chars, used as its weight by the cache
+     */
+    public long getSourceLength() {
+        return this.sourceLength;
+    }
+}
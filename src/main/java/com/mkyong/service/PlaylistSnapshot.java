@@ -0,0 +1,654 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.Entry;
+import com.mkyong.service.hlsM3u8Parser.FileType;
+import com.mkyong.service.hlsM3u8Parser.GroupInfoEntry;
+import com.mkyong.service.hlsM3u8Parser.GroupType;
+import com.mkyong.service.hlsM3u8Parser.MediaInfoEntry;
+import com.mkyong.service.hlsM3u8Parser.Resolution;
+import com.mkyong.service.hlsM3u8Parser.StreamInfoEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact, versioned binary encoding of a parsed playlist, e.g to persist the playlist cache across restarts or to share
+ * it with sidecar processes through files.
+ *
+ * A snapshot is read in place, typically from a memory-mapped file (see open(Path)): the accessors read the fields at
+ * their offset in the buffer, numeric ones without allocating anything. Strings are only decoded when asked for.
+ *
+ * Layout (big-endian), all offsets from the start of the snapshot:
+ *
+ *   header       64 bytes, see the HEADER_ constants
+ *   segments     SEGMENT_SIZE bytes each: sequence number (long), byte-range start (long), end (long), duration
+ *                (float), URI (string ref, relative to the context when it's below it, as in MediaSegmentTable)
+ *   variants     VARIANT_SIZE bytes each: bandwidth, average bandwidth, program id, width, height (ints), frame rate
+ *                (float), then codecs, URI, audio, video, subtitles, closed-captions and name (string refs)
+ *   renditions   RENDITION_SIZE bytes each: group type, flags (ints), then group id, name, language, assoc language,
+ *                URI, instream id, characteristics and channels (string refs)
+ *   strings      length (int) then UTF-8 bytes, each distinct string once. A string ref is the offset of its length,
+ *                -1 for null.
+ *   text         the playlist as it's written back (see hlsM3u8Parser.writeTo), UTF-8
+ *
+ * A reader refuses snapshots of another FORMAT_VERSION: they're a cache, rebuild them from the playlists then.
+ *
+ * Immutable and thread-safe (the buffer is only read with absolute gets).
+ */
+public final class PlaylistSnapshot {
+
+    public static final int MAGIC = 0x484c5350; // "HLSP"
+    public static final int FORMAT_VERSION = 2;
+
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_FILE_TYPE = 8;
+    static final int HEADER_FLAGS = 12;
+    static final int HEADER_TARGET_DURATION = 16;
+    static final int HEADER_SEGMENTS_COUNT = 20;
+    static final int HEADER_MEDIA_SEQUENCE = 24;
+    static final int HEADER_SOURCE_LENGTH = 32;
+    static final int HEADER_VARIANTS_COUNT = 40;
+    static final int HEADER_RENDITIONS_COUNT = 44;
+    static final int HEADER_CONTEXT = 48;
+    static final int HEADER_TEXT_OFFSET = 52;
+    static final int HEADER_TEXT_LENGTH = 56;
+    static final int HEADER_SIZE = 64;
+
+    static final int SEGMENT_SIZE = 32;
+    static final int VARIANT_SIZE = 52;
+    static final int RENDITION_SIZE = 40;
+
+    private static final int FLAG_END_LIST = 1;
+
+    private static final int RENDITION_DEFAULT = 1;
+    private static final int RENDITION_AUTOSELECT = 2;
+    private static final int RENDITION_FORCED = 4;
+
+    private static final int NULL_REF = -1;
+
+    /**
+     * Encodes the playlist into a new heap buffer, positioned at 0 and limited to the snapshot size.
+     */
+    public static ByteBuffer encode(ParsedPlaylist playlist) {
+        return new Encoder(playlist).encode();
+    }
+
+    public static void write(ParsedPlaylist playlist, OutputStream out) {
+        ByteBuffer buffer = encode(playlist);
+        try {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write playlist snapshot: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Writes the snapshot next to the file, then moves it in place: readers (e.g other processes) never see a
+     * partially written snapshot.
+     */
+    public static void write(ParsedPlaylist playlist, Path file) {
+        ByteBuffer buffer = encode(playlist);
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write playlist snapshot: " + file, ioe);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ioe) {
+                    // Nothing more we can do
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the file read-only. The mapping stays valid after the file is replaced (see write(ParsedPlaylist, Path)),
+     * it keeps showing the snapshot it was opened with.
+     */
+    public static PlaylistSnapshot open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to open playlist snapshot: " + file, ioe);
+        }
+    }
+
+    /**
+     * @param buffer Snapshot from its position to its limit, not copied
+     * @throws RuntimeException if it's not a snapshot, or of another format version
+     */
+    public static PlaylistSnapshot wrap(ByteBuffer buffer) {
+        ByteBuffer b = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        if (b.remaining() < HEADER_SIZE || b.getInt(HEADER_MAGIC) != MAGIC) {
+            throw new RuntimeException("Not a playlist snapshot");
+        }
+        int version = b.getInt(HEADER_VERSION);
+        if (version != FORMAT_VERSION) {
+            throw new RuntimeException("Unsupported playlist snapshot version: " + version + ", expected " + FORMAT_VERSION);
+        }
+        PlaylistSnapshot snapshot = new PlaylistSnapshot(b);
+        if (snapshot.textOffset < snapshot.renditionsOffset + snapshot.renditionsCount * RENDITION_SIZE
+                || (long) snapshot.textOffset + b.getInt(HEADER_TEXT_LENGTH) > b.limit()) {
+            throw new RuntimeException("Truncated playlist snapshot");
+        }
+        return snapshot;
+    }
+
+    private final ByteBuffer buffer;
+    private final int segmentsCount;
+    private final int variantsCount;
+    private final int renditionsCount;
+    private final int variantsOffset;
+    private final int renditionsOffset;
+    private final int textOffset;
+
+    private PlaylistSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.segmentsCount = buffer.getInt(HEADER_SEGMENTS_COUNT);
+        this.variantsCount = buffer.getInt(HEADER_VARIANTS_COUNT);
+        this.renditionsCount = buffer.getInt(HEADER_RENDITIONS_COUNT);
+        this.variantsOffset = HEADER_SIZE + this.segmentsCount * SEGMENT_SIZE;
+        this.renditionsOffset = this.variantsOffset + this.variantsCount * VARIANT_SIZE;
+        this.textOffset = buffer.getInt(HEADER_TEXT_OFFSET);
+    }
+
+    /**
+     * @return Null if the parser couldn't tell (e.g empty playlist)
+     */
+    public FileType getFileType() {
+        int fileType = this.buffer.getInt(HEADER_FILE_TYPE);
+        return fileType < 0 ? null : FileType.values()[fileType];
+    }
+
+    public boolean hasEndList() {
+        return (this.buffer.getInt(HEADER_FLAGS) & FLAG_END_LIST) != 0;
+    }
+
+    /**
+     * @see ParsedPlaylist#isLive()
+     */
+    public boolean isLive() {
+        return this.getFileType() == FileType.MEDIA_PLAYLIST && !this.hasEndList();
+    }
+
+    /**
+     * @return EXT-X-TARGETDURATION in seconds, -1 if the playlist doesn't tell
+     */
+    public int getTargetDuration() {
+        return this.buffer.getInt(HEADER_TARGET_DURATION);
+    }
+
+    public long getMediaSequence() {
+        return this.buffer.getLong(HEADER_MEDIA_SEQUENCE);
+    }
+
+    /**
+     * @return Size of the original playlist text in chars
+     */
+    public long getSourceLength() {
+        return this.buffer.getLong(HEADER_SOURCE_LENGTH);
+    }
+
+    /**
+     * @return URL the playlist was loaded from, relative URIs are relative to it. Null if it had none.
+     */
+    public URL getContext() {
+        String context = this.getString(this.buffer.getInt(HEADER_CONTEXT));
+        try {
+            return context == null ? null : new URL(context);
+        } catch (MalformedURLException mue) {
+            throw new RuntimeException("Malformed context URL in playlist snapshot: " + context, mue);
+        }
+    }
+
+    /**
+     * @return Size of the snapshot in bytes
+     */
+    public int size() {
+        return this.buffer.limit();
+    }
+
+    public int getSegmentsCount() {
+        return this.segmentsCount;
+    }
+
+    /**
+     * @return Sequence number of the segment, see MediaSegmentTable.getSequence(int)
+     */
+    public long getSegmentSequence(int index) {
+        return this.buffer.getLong(this.segment(index));
+    }
+
+    public long getSegmentByteRangeStart(int index) {
+        return this.buffer.getLong(this.segment(index) + 8);
+    }
+
+    /**
+     * @return Last byte of the range (inclusive), -1 if the segment has no byte-range
+     */
+    public long getSegmentByteRangeEnd(int index) {
+        return this.buffer.getLong(this.segment(index) + 16);
+    }
+
+    public float getSegmentDuration(int index) {
+        return this.buffer.getFloat(this.segment(index) + 24);
+    }
+
+    /**
+     * @return URI of the segment, relative to the context when it was below it (see MediaSegmentTable.getUri(int))
+     */
+    public String getSegmentUri(int index) {
+        return this.getString(this.buffer.getInt(this.segment(index) + 28));
+    }
+
+    public int getVariantsCount() {
+        return this.variantsCount;
+    }
+
+    public int getVariantBandwidth(int index) {
+        return this.buffer.getInt(this.variant(index));
+    }
+
+    /**
+     * @return AVERAGE-BANDWIDTH, 0 if the playlist doesn't tell
+     */
+    public int getVariantAverageBandwidth(int index) {
+        return this.buffer.getInt(this.variant(index) + 4);
+    }
+
+    public int getVariantProgramId(int index) {
+        return this.buffer.getInt(this.variant(index) + 8);
+    }
+
+    /**
+     * @return Width of the RESOLUTION, 0 if the playlist doesn't tell
+     */
+    public int getVariantWidth(int index) {
+        return this.buffer.getInt(this.variant(index) + 12);
+    }
+
+    /**
+     * @return Height of the RESOLUTION, 0 if the playlist doesn't tell
+     */
+    public int getVariantHeight(int index) {
+        return this.buffer.getInt(this.variant(index) + 16);
+    }
+
+    /**
+     * @return FRAME-RATE, 0 if the playlist doesn't tell
+     */
+    public float getVariantFrameRate(int index) {
+        return this.buffer.getFloat(this.variant(index) + 20);
+    }
+
+    public String getVariantCodecs(int index) {
+        return this.getString(this.buffer.getInt(this.variant(index) + 24));
+    }
+
+    public String getVariantUri(int index) {
+        return this.getString(this.buffer.getInt(this.variant(index) + 28));
+    }
+
+    public String getVariantAudioGroupId(int index) {
+        return this.getString(this.buffer.getInt(this.variant(index) + 32));
+    }
+
+    public String getVariantVideoGroupId(int index) {
+        return this.getString(this.buffer.getInt(this.variant(index) + 36));
+    }
+
+    public String getVariantSubtitlesGroupId(int index) {
+        return this.getString(this.buffer.getInt(this.variant(index) + 40));
+    }
+
+    public String getVariantClosedCaptionsGroupId(int index) {
+        return this.getString(this.buffer.getInt(this.variant(index) + 44));
+    }
+
+    public String getVariantName(int index) {
+        return this.getString(this.buffer.getInt(this.variant(index) + 48));
+    }
+
+    /**
+     * @return Amount of EXT-X-MEDIA entries
+     */
+    public int getRenditionsCount() {
+        return this.renditionsCount;
+    }
+
+    public GroupType getRenditionType(int index) {
+        int type = this.buffer.getInt(this.rendition(index));
+        return type < 0 ? null : GroupType.values()[type];
+    }
+
+    public boolean isRenditionDefault(int index) {
+        return (this.buffer.getInt(this.rendition(index) + 4) & RENDITION_DEFAULT) != 0;
+    }
+
+    public boolean isRenditionAutoSelect(int index) {
+        return (this.buffer.getInt(this.rendition(index) + 4) & RENDITION_AUTOSELECT) != 0;
+    }
+
+    public boolean isRenditionForced(int index) {
+        return (this.buffer.getInt(this.rendition(index) + 4) & RENDITION_FORCED) != 0;
+    }
+
+    public String getRenditionGroupId(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 8));
+    }
+
+    public String getRenditionName(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 12));
+    }
+
+    public String getRenditionLanguage(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 16));
+    }
+
+    public String getRenditionAssocLanguage(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 20));
+    }
+
+    public String getRenditionUri(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 24));
+    }
+
+    public String getRenditionInstreamId(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 28));
+    }
+
+    public String getRenditionCharacteristics(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 32));
+    }
+
+    public String getRenditionChannels(int index) {
+        return this.getString(this.buffer.getInt(this.rendition(index) + 36));
+    }
+
+    /**
+     * @return Size of the playlist text in bytes
+     */
+    public int getTextLength() {
+        return this.buffer.getInt(HEADER_TEXT_LENGTH);
+    }
+
+    /**
+     * @return The playlist text, as a read-only view on the snapshot (no copy)
+     */
+    public ByteBuffer getText() {
+        ByteBuffer text = this.buffer.duplicate();
+        text.position(this.textOffset).limit(this.textOffset + this.getTextLength());
+        return text.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the playlist text straight from the snapshot, e.g to serve it without parsing it first.
+     */
+    public void writeTextTo(OutputStream out) {
+        ByteBuffer text = this.getText();
+        byte[] chunk = new byte[Math.min(text.remaining(), hlsM3u8Parser.READ_BUFFER_SIZE)];
+        try {
+            while (text.hasRemaining()) {
+                int length = Math.min(chunk.length, text.remaining());
+                text.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write M3U8 data: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * @return Amount of bytes written, starting at the current position of target
+     * @throws BufferOverflowException if target has not enough space remaining, nothing is written then
+     */
+    public int writeTextTo(ByteBuffer target) {
+        ByteBuffer text = this.getText();
+        if (text.remaining() > target.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int length = text.remaining();
+        target.put(text);
+        return length;
+    }
+
+    /**
+     * @return The segments as a table, without parsing anything
+     */
+    public MediaSegmentTable toSegmentTable() {
+        MediaSegmentTable.Builder builder = new MediaSegmentTable.Builder(this.getContext());
+        for (int i = 0; i < this.segmentsCount; i++) {
+            String uri = this.getSegmentUri(i);
+            builder.add(this.getSegmentSequence(i), this.getSegmentDuration(i), this.getSegmentByteRangeStart(i),
+                    this.getSegmentByteRangeEnd(i), uri == null ? "" : uri);
+        }
+        return builder.build(this.getMediaSequence());
+    }
+
+    /**
+     * Rebuilds the full model, e.g to put it back in a HlsPlaylistCache. Note: This parses the playlist text again,
+     * prefer the accessors when they're enough.
+     */
+    public ParsedPlaylist toParsedPlaylist() {
+        ByteBuffer text = this.getText();
+        byte[] bytes = new byte[text.remaining()];
+        text.get(bytes);
+        hlsM3u8Parser parser = new hlsM3u8Parser(new ByteArrayInputStream(bytes), this.getContext(), false);
+        // Note: The text may come from a lenient parse, with tags a strict one would reject
+        parser.setLenient(true);
+        parser.parse();
+        return new ParsedPlaylist(parser);
+    }
+
+    private int segment(int index) {
+        checkIndex(index, this.segmentsCount);
+        return HEADER_SIZE + index * SEGMENT_SIZE;
+    }
+
+    private int variant(int index) {
+        checkIndex(index, this.variantsCount);
+        return this.variantsOffset + index * VARIANT_SIZE;
+    }
+
+    private int rendition(int index) {
+        checkIndex(index, this.renditionsCount);
+        return this.renditionsOffset + index * RENDITION_SIZE;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No entry at index " + index + ", size is " + size);
+        }
+    }
+
+    private String getString(int ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        int length = this.buffer.getInt(ref);
+        ByteBuffer bytes = this.buffer.duplicate();
+        bytes.position(ref + 4).limit(ref + 4 + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * Lays the snapshot out in two passes: the first one sizes the sections and collects the distinct strings, the
+     * second one fills a buffer of the exact size.
+     */
+    private static final class Encoder {
+        private final ParsedPlaylist playlist;
+        private final String base;
+        // Distinct strings, with their offset relative to the start of the strings section
+        private final HashMap<String, Integer> strings = new HashMap<>();
+        // Their encoding, in the order of their offsets
+        private final ArrayList<byte[]> encoded = new ArrayList<>();
+        private int stringsSize = 0;
+
+        Encoder(ParsedPlaylist playlist) {
+            this.playlist = playlist;
+            this.base = MediaSegmentTable.baseOf(playlist.getContext());
+        }
+
+        ByteBuffer encode() {
+            List<MediaInfoEntry> segments = this.playlist.getMediaInfoEntries();
+            List<StreamInfoEntry> variants = this.playlist.getStreamInfoEntries();
+            List<GroupInfoEntry> renditions = this.playlist.getGroupInfoEntries();
+
+            Utf8Buffer text = new Utf8Buffer(hlsM3u8Parser.READ_BUFFER_SIZE);
+            for (Entry e : this.playlist.getEntries()) {
+                e.appendTo(text);
+                text.append('\n');
+            }
+
+            URL context = this.playlist.getContext();
+            this.collect(context == null ? null : context.toString());
+            for (MediaInfoEntry segment : segments) {
+                this.collect(this.segmentUri(segment));
+            }
+            for (StreamInfoEntry variant : variants) {
+                this.collect(variant.getCodecs());
+                this.collect(variant.getUri());
+                this.collect(variant.getAudioGroupId());
+                this.collect(variant.getVideoGroupId());
+                this.collect(variant.getSubtitlesGroupId());
+                this.collect(variant.getClosedCaptionsGroupId());
+                this.collect(variant.getName());
+            }
+            for (GroupInfoEntry rendition : renditions) {
+                this.collect(rendition.getGroupId());
+                this.collect(rendition.getName());
+                this.collect(rendition.getLanguage());
+                this.collect(rendition.getAssocLanguage());
+                this.collect(rendition.getUri());
+                this.collect(rendition.getInstreamId());
+                this.collect(rendition.getCharacteristics());
+                this.collect(rendition.getChannels());
+            }
+
+            long stringsOffset = HEADER_SIZE + (long) segments.size() * SEGMENT_SIZE
+                    + (long) variants.size() * VARIANT_SIZE + (long) renditions.size() * RENDITION_SIZE;
+            long size = stringsOffset + this.stringsSize + text.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("Playlist too big for a snapshot: " + size + " bytes");
+            }
+            int base = (int) stringsOffset;
+
+            ByteBuffer b = ByteBuffer.allocate((int) size);
+            FileType fileType = this.playlist.getFileType();
+            b.putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putInt(fileType == null ? -1 : fileType.ordinal())
+                    .putInt(this.playlist.hasEndList() ? FLAG_END_LIST : 0)
+                    .putInt(this.playlist.getTargetDuration())
+                    .putInt(segments.size())
+                    .putLong(this.playlist.getMediaSequence())
+                    .putLong(this.playlist.getSourceLength())
+                    .putInt(variants.size())
+                    .putInt(renditions.size())
+                    .putInt(this.ref(context == null ? null : context.toString(), base))
+                    .putInt(base + this.stringsSize)
+                    .putInt(text.size());
+            b.position(HEADER_SIZE);
+
+            for (MediaInfoEntry segment : segments) {
+                b.putLong(segment.getSequence())
+                        .putLong(segment.getByteRangeStart())
+                        .putLong(segment.getByteRangeEnd())
+                        .putFloat(segment.getDuration())
+                        .putInt(this.ref(this.segmentUri(segment), base));
+            }
+            for (StreamInfoEntry variant : variants) {
+                Resolution resolution = variant.getResolution();
+                b.putInt(variant.getBandwidth())
+                        .putInt(variant.getAverageBandwidth())
+                        .putInt(variant.getProgramId())
+                        .putInt(resolution == null ? 0 : resolution.getWidth())
+                        .putInt(resolution == null ? 0 : resolution.getHeight())
+                        .putFloat(variant.getFrameRate())
+                        .putInt(this.ref(variant.getCodecs(), base))
+                        .putInt(this.ref(variant.getUri(), base))
+                        .putInt(this.ref(variant.getAudioGroupId(), base))
+                        .putInt(this.ref(variant.getVideoGroupId(), base))
+                        .putInt(this.ref(variant.getSubtitlesGroupId(), base))
+                        .putInt(this.ref(variant.getClosedCaptionsGroupId(), base))
+                        .putInt(this.ref(variant.getName(), base));
+            }
+            for (GroupInfoEntry rendition : renditions) {
+                int flags = (rendition.isDefault() ? RENDITION_DEFAULT : 0)
+                        | (rendition.isAutoSelect() ? RENDITION_AUTOSELECT : 0)
+                        | (rendition.isForced() ? RENDITION_FORCED : 0);
+                GroupType type = rendition.getGroupType();
+                b.putInt(type == null ? -1 : type.ordinal())
+                        .putInt(flags)
+                        .putInt(this.ref(rendition.getGroupId(), base))
+                        .putInt(this.ref(rendition.getName(), base))
+                        .putInt(this.ref(rendition.getLanguage(), base))
+                        .putInt(this.ref(rendition.getAssocLanguage(), base))
+                        .putInt(this.ref(rendition.getUri(), base))
+                        .putInt(this.ref(rendition.getInstreamId(), base))
+                        .putInt(this.ref(rendition.getCharacteristics(), base))
+                        .putInt(this.ref(rendition.getChannels(), base));
+            }
+
+            for (byte[] bytes : this.encoded) {
+                b.putInt(bytes.length).put(bytes);
+            }
+
+            b.position(base + this.stringsSize);
+            text.writeTo(b);
+            b.flip();
+            return b;
+        }
+
+        private String segmentUri(MediaInfoEntry segment) {
+            // Note: Same as MediaSegmentTable, so that segments don't all repeat the context
+            String uri = segment.getUri();
+            if (uri != null && MediaSegmentTable.isRelativeTo(uri, this.base)) {
+                return uri.substring(this.base.length());
+            }
+            return uri;
+        }
+
+        private void collect(String s) {
+            if (s != null && !this.strings.containsKey(s)) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                this.strings.put(s, this.stringsSize);
+                this.encoded.add(bytes);
+                this.stringsSize += 4 + bytes.length;
+            }
+        }
+
+        private int ref(String s, int base) {
+            return s == null ? NULL_REF : base + this.strings.get(s);
+        }
+    }
+}
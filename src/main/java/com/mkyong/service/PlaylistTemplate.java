@@ -0,0 +1,190 @@
+package com.mkyong.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A playlist serialized once with a UrlRewriter, with the ${name} tokens of the rewriter left out: rendering it for a
+ * session only splices the session's token values into the pre-serialized bytes. No parsing, no rewriting.
+ *
+ * E.g to serve one upstream playlist to many listeners, each with their own listeningSessionID:
+ *
+ *   PlaylistTemplate template = PlaylistTemplate.of(parser,
+ *       new UrlRewriter.Builder().setQueryParameter("listeningSessionID", "${session}").build());
+ *   template.writeTo(out, Collections.singletonMap("session", sessionId));
+ *
+ * Immutable and thread-safe, render it concurrently for as many sessions as needed.
+ */
+public final class PlaylistTemplate {
+
+    /**
+     * @param parser Parsed playlist, it's not referenced by the template afterwards
+     * @param rewriter Rules to apply to every URI (segments, variants, and the URI attributes of EXT-X-KEY, EXT-X-MAP,
+     *                 EXT-X-MEDIA...), their tokens are filled in at rendering time
+     */
+    public static PlaylistTemplate of(hlsM3u8Parser parser, UrlRewriter rewriter) {
+        final ArrayList<String> names = new ArrayList<>();
+        final int[][] points = {new int[16], new int[16]};
+        final int[] count = {0};
+
+        Utf8Buffer out = new Utf8Buffer(hlsM3u8Parser.READ_BUFFER_SIZE);
+        parser.renderTo(out, rewriter, new UrlRewriter.TokenWriter() {
+            @Override
+            public void write(String name, Utf8Buffer out) {
+                // Don't write anything, just remember where the value goes
+                int token = names.indexOf(name);
+                if (token < 0) {
+                    token = names.size();
+                    names.add(name);
+                }
+                if (count[0] == points[0].length) {
+                    points[0] = Arrays.copyOf(points[0], count[0] * 2);
+                    points[1] = Arrays.copyOf(points[1], count[0] * 2);
+                }
+                points[0][count[0]] = out.size();
+                points[1][count[0]] = token;
+                count[0]++;
+            }
+        });
+
+        byte[] bytes = new byte[out.size()];
+        out.asByteBuffer().get(bytes);
+        return new PlaylistTemplate(bytes, Arrays.copyOf(points[0], count[0]), Arrays.copyOf(points[1], count[0]),
+                names.toArray(new String[0]));
+    }
+
+    private final byte[] bytes;
+    // Value of token tokens[i] goes at offsets[i] in bytes, offsets are ascending
+    private final int[] offsets;
+    private final int[] tokens;
+    private final String[] tokenNames;
+
+    private PlaylistTemplate(byte[] bytes, int[] offsets, int[] tokens, String[] tokenNames) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.tokens = tokens;
+        this.tokenNames = tokenNames;
+    }
+
+    /**
+     * @return Names of the tokens which need a value for rendering
+     */
+    public List<String> getTokenNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.tokenNames));
+    }
+
+    /**
+     * @return Amount of places token values get spliced in at
+     */
+    public int getInsertionPointsCount() {
+        return this.offsets.length;
+    }
+
+    /**
+     * @return Size of the template without any token value, in bytes
+     */
+    public int getTemplateSize() {
+        return this.bytes.length;
+    }
+
+    /**
+     * @param tokens Value of every token (written as is, see UrlRewriter)
+     * @return Size of the rendered playlist, in bytes
+     */
+    public int renderedSize(Map<String, String> tokens) {
+        return this.renderedSize(this.encode(tokens));
+    }
+
+    /**
+     * @param tokens Value of every token (written as is, see UrlRewriter)
+     * @return The rendered playlist, UTF-8 encoded
+     */
+    public byte[] render(Map<String, String> tokens) {
+        byte[][] values = this.encode(tokens);
+        byte[] result = new byte[this.renderedSize(values)];
+        int position = 0;
+        int chunkStart = 0;
+        for (int i = 0; i < this.offsets.length; i++) {
+            int chunkLength = this.offsets[i] - chunkStart;
+            System.arraycopy(this.bytes, chunkStart, result, position, chunkLength);
+            position += chunkLength;
+            byte[] value = values[this.tokens[i]];
+            System.arraycopy(value, 0, result, position, value.length);
+            position += value.length;
+            chunkStart = this.offsets[i];
+        }
+        System.arraycopy(this.bytes, chunkStart, result, position, this.bytes.length - chunkStart);
+        return result;
+    }
+
+    /**
+     * Writes the rendered playlist chunk by chunk (use a buffered stream) and flushes once.
+     */
+    public void writeTo(OutputStream out, Map<String, String> tokens) {
+        byte[][] values = this.encode(tokens);
+        try {
+            int chunkStart = 0;
+            for (int i = 0; i < this.offsets.length; i++) {
+                out.write(this.bytes, chunkStart, this.offsets[i] - chunkStart);
+                out.write(values[this.tokens[i]]);
+                chunkStart = this.offsets[i];
+            }
+            out.write(this.bytes, chunkStart, this.bytes.length - chunkStart);
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write M3U8 data: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Writes the rendered playlist into a caller-provided buffer (e.g a direct buffer of the HTTP layer).
+     * @return Amount of bytes written, starting at the current position of target
+     * @throws BufferOverflowException if target has not enough space remaining, nothing is written then
+     */
+    public int writeTo(ByteBuffer target, Map<String, String> tokens) {
+        byte[][] values = this.encode(tokens);
+        int size = this.renderedSize(values);
+        if (size > target.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int chunkStart = 0;
+        for (int i = 0; i < this.offsets.length; i++) {
+            target.put(this.bytes, chunkStart, this.offsets[i] - chunkStart);
+            target.put(values[this.tokens[i]]);
+            chunkStart = this.offsets[i];
+        }
+        target.put(this.bytes, chunkStart, this.bytes.length - chunkStart);
+        return size;
+    }
+
+    /**
+     * @return The values in the order of tokenNames, UTF-8 encoded once per rendering
+     */
+    private byte[][] encode(Map<String, String> tokens) {
+        byte[][] values = new byte[this.tokenNames.length][];
+        for (int i = 0; i < this.tokenNames.length; i++) {
+            String value = tokens == null ? null : tokens.get(this.tokenNames[i]);
+            if (value == null) {
+                throw new RuntimeException("No value for token: " + this.tokenNames[i]);
+            }
+            values[i] = value.getBytes(StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    private int renderedSize(byte[][] values) {
+        int size = this.bytes.length;
+        for (int token : this.tokens) {
+            size += values[token].length;
+        }
+        return size;
+    }
+}
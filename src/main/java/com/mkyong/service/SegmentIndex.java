@@ -0,0 +1,207 @@
+package com.mkyong.service;
+
+import java.util.Arrays;
+
+/**
+ * Index over a window of segments: cumulative durations for time lookups (binary search), and sequence numbers for
+ * sequence lookups (plain subtraction, or binary search once the window has gaps).
+ *
+ * Sequence numbers usually follow each other, but may leave gaps: segments which failed to parse in lenient mode keep
+ * their sequence number, and segment filters may skip some. Only then are the sequence numbers stored.
+ *
+ * Times are in seconds, on a timeline starting at 0 with the first segment ever appended (or since clear()).
+ * Evicting segments from the head of the window doesn't shift the timeline, so a time stays valid while its
+ * segment is in the window.
+ *
+ * Positions are 0 for the oldest segment of the window, i.e they match the order of the segment lists this index
+ * is built next to (hlsM3u8Parser.getMediaInfoEntries(), LivePlaylistRefresher.getSegments()).
+ *
+ * Not thread-safe.
+ */
+public final class SegmentIndex {
+
+    // ends[i] is the end time of the segment at position i - head, in [head, tail[
+    private double[] ends = new double[64];
+    private int head = 0;
+    private int tail = 0;
+    private double startTime = 0;
+    private long firstSequence = -1;
+    // sequences[i] is the sequence number of the segment at position i - head, null as long as there's no gap
+    private long[] sequences = null;
+
+    /**
+     * Appends the next segment of the window.
+     * @param sequence Must be greater than the last appended sequence number, unless the index is empty
+     * @param duration In seconds
+     */
+    public void append(long sequence, float duration) {
+        if (this.size() > 0 && sequence <= this.getLastSequence()) {
+            throw new RuntimeException("Segments must come in order: expected a sequence after "
+                    + this.getLastSequence() + " but got " + sequence);
+        }
+        if (this.size() == 0) {
+            this.firstSequence = sequence;
+            this.sequences = null;
+        } else if (this.sequences == null && sequence != this.getLastSequence() + 1) {
+            // First gap, from now on we need to keep track of every sequence number
+            this.sequences = new long[this.ends.length];
+            for (int i = this.head; i < this.tail; i++) {
+                this.sequences[i] = this.firstSequence + i - this.head;
+            }
+        }
+        if (this.tail == this.ends.length) {
+            this.compact();
+            if (this.tail == this.ends.length) {
+                this.ends = Arrays.copyOf(this.ends, this.ends.length * 2);
+                if (this.sequences != null) {
+                    this.sequences = Arrays.copyOf(this.sequences, this.ends.length);
+                }
+            }
+        }
+        if (this.sequences != null) {
+            this.sequences[this.tail] = sequence;
+        }
+        this.ends[this.tail] = this.getEndTime() + Math.max(0, duration);
+        this.tail++;
+    }
+
+    /**
+     * Drops the oldest segments, their time range is lost but the timeline doesn't move.
+     */
+    public void removeFirst(int count) {
+        if (count < 0 || count > this.size()) {
+            throw new IndexOutOfBoundsException("Can't remove " + count + " segments out of " + this.size());
+        }
+        if (count == 0) {
+            return;
+        }
+        this.startTime = this.ends[this.head + count - 1];
+        this.head += count;
+        if (this.sequences != null && this.size() > 0) {
+            this.firstSequence = this.sequences[this.head];
+        } else {
+            this.firstSequence += count;
+        }
+    }
+
+    /**
+     * Empties the index, the timeline starts over at 0
+     */
+    public void clear() {
+        this.head = 0;
+        this.tail = 0;
+        this.startTime = 0;
+        this.firstSequence = -1;
+        this.sequences = null;
+    }
+
+    public int size() {
+        return this.tail - this.head;
+    }
+
+    /**
+     * @return Sequence number of the oldest segment, -1 if empty
+     */
+    public long getFirstSequence() {
+        return this.size() == 0 ? -1 : this.firstSequence;
+    }
+
+    /**
+     * @return Sequence number of the newest segment, -1 if empty
+     */
+    public long getLastSequence() {
+        if (this.size() == 0) {
+            return -1;
+        }
+        return this.sequences != null ? this.sequences[this.tail - 1] : this.firstSequence + this.size() - 1;
+    }
+
+    public long getSequence(int position) {
+        this.checkPosition(position);
+        return this.sequences != null ? this.sequences[this.head + position] : this.firstSequence + position;
+    }
+
+    /**
+     * @return Start time of the window
+     */
+    public double getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * @return End time of the window
+     */
+    public double getEndTime() {
+        return this.tail == this.head ? this.startTime : this.ends[this.tail - 1];
+    }
+
+    /**
+     * @return Duration of the window, in seconds
+     */
+    public double getDuration() {
+        return this.getEndTime() - this.startTime;
+    }
+
+    public double getStartTime(int position) {
+        this.checkPosition(position);
+        return position == 0 ? this.startTime : this.ends[this.head + position - 1];
+    }
+
+    public double getEndTime(int position) {
+        this.checkPosition(position);
+        return this.ends[this.head + position];
+    }
+
+    /**
+     * O(log n)
+     * @param time Time on the timeline of this index, see getStartTime()
+     * @return Position of the segment playing at that time, -1 if the time is outside of the window
+     */
+    public int positionOfTime(double time) {
+        if (time < this.startTime || time >= this.getEndTime()) {
+            return -1;
+        }
+        // first segment ending after time
+        int low = this.head;
+        int high = this.tail - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.ends[middle] > time) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low - this.head;
+    }
+
+    /**
+     * O(1), O(log n) once the window has gaps
+     * @return Position of the segment with that sequence number, -1 if it's not in the window
+     */
+    public int positionOfSequence(long sequence) {
+        if (this.sequences != null) {
+            int i = this.size() == 0 ? -1 : Arrays.binarySearch(this.sequences, this.head, this.tail, sequence);
+            return i >= 0 ? i - this.head : -1;
+        }
+        long position = sequence - this.firstSequence;
+        return this.size() > 0 && position >= 0 && position < this.size() ? (int) position : -1;
+    }
+
+    private void compact() {
+        if (this.head > 0) {
+            System.arraycopy(this.ends, this.head, this.ends, 0, this.size());
+            if (this.sequences != null) {
+                System.arraycopy(this.sequences, this.head, this.sequences, 0, this.size());
+            }
+            this.tail -= this.head;
+            this.head = 0;
+        }
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= this.size()) {
+            throw new IndexOutOfBoundsException("No segment at position " + position + ", size is " + this.size());
+        }
+    }
+}
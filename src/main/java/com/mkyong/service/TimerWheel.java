@@ -0,0 +1,188 @@
+package com.mkyong.service;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel: schedules lots of coarse timeouts (e.g one per live playlist to poll) with O(1) scheduling and
+ * cancellation, and one thread for all of them.
+ *
+ * Time is cut in ticks. A timeout goes into the bucket of the tick it's due on, modulo the wheel size, with the amount
+ * of full turns of the wheel left before it's due. The wheel thread visits one bucket per tick and hands the due
+ * timeouts over to an executor; it never runs them itself, so a slow task doesn't delay the others.
+ *
+ * Timeouts fire up to one tick late, never early. Thread-safe.
+ */
+public final class TimerWheel {
+
+    public static final long DEFAULT_TICK_MS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * Handle of a scheduled task
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        // Relative to the start of the wheel
+        private final long deadlineNanos;
+        private long remainingRounds;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * O(1), the wheel drops the timeout when it visits its bucket.
+         * @return False if it already fired or was cancelled
+         */
+        public boolean cancel() {
+            return this.state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return this.state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return this.state.get() == EXPIRED;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    // Only touched by the wheel thread
+    private final ArrayList<Timeout>[] buckets;
+    private long tick = 0;
+
+    // Scheduled but not in a bucket yet, so that only the wheel thread touches the buckets
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Executor executor;
+    private final Thread thread;
+    private final long startNanos;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param executor Runs the tasks once they're due
+     */
+    public TimerWheel(Executor executor) {
+        this(executor, DEFAULT_TICK_MS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param executor Runs the tasks once they're due
+     * @param tick Resolution of the wheel
+     * @param wheelSize Amount of buckets, rounded up to a power of 2. Timeouts due within wheelSize ticks are
+     *                  found in one visit of their bucket, later ones wait for further turns.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(Executor executor, long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0 || wheelSize <= 0 || wheelSize > (1 << 20)) {
+            throw new RuntimeException("Invalid timer wheel, tick: " + tick + " " + unit + ", size: " + wheelSize);
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = unit.toNanos(tick);
+        this.mask = size - 1;
+        this.buckets = new ArrayList[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new ArrayList<>();
+        }
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+
+        this.thread = new Thread(this::run, "hls-timer-wheel");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return Handle to cancel the task with
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (this.stopped) {
+            throw new RuntimeException("Timer wheel is stopped");
+        }
+        long deadline = System.nanoTime() - this.startNanos + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(task, deadline);
+        this.scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel thread. Pending timeouts never fire.
+     */
+    public void stop() {
+        this.stopped = true;
+        this.thread.interrupt();
+    }
+
+    private void run() {
+        while (!this.stopped) {
+            // Sleep until the end of the current tick
+            long tickEnd = (this.tick + 1) * this.tickNanos;
+            long sleepNanos = tickEnd - (System.nanoTime() - this.startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ie) {
+                    if (this.stopped) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+
+            this.transferScheduled();
+            this.expire(this.buckets[(int) (this.tick & this.mask)]);
+            this.tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = this.scheduled.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // Note: Already due ones go into the current bucket, which gets visited right after this
+            long dueTick = Math.max(this.tick, timeout.deadlineNanos / this.tickNanos);
+            timeout.remainingRounds = (dueTick - this.tick) / this.buckets.length;
+            this.buckets[(int) (dueTick & this.mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayList<Timeout> bucket) {
+        // Compacts the bucket in place, keeping the timeouts due in a later turn
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+                continue;
+            }
+            if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                try {
+                    this.executor.execute(timeout.task);
+                } catch (RuntimeException re) {
+                    // e.g the executor was shut down, nothing we can do for that task
+                }
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+}
@@ -0,0 +1,292 @@
+package com.mkyong.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites URIs as text, e.g to sign every segment URL of a playlist per session. Replaces addTrailerToEachURL:
+ * no java.net.URL is created or parsed, and relative URIs stay relative.
+ *
+ * Rules are set up once with a Builder and applied in this order: path prefix swap, query parameters
+ * (remove, replace, then append), suffix. Values may contain ${name} tokens, which are filled in per call from
+ * the given tokens (e.g per session). Values and tokens are written as is, they must already be URL-encoded.
+ *
+ * Meant to be applied while serializing, see hlsM3u8Parser.writeTo(OutputStream, UrlRewriter, Map).
+ * Immutable and thread-safe.
+ */
+public final class UrlRewriter {
+
+    /**
+     * Text with ${name} tokens, split once into literal parts and token names
+     */
+    static final class Template {
+        // literals at even indices, token names at odd indices
+        private final String[] parts;
+
+        Template(String text) {
+            ArrayList<String> parts = new ArrayList<>();
+            int i = 0;
+            while (true) {
+                int open = text.indexOf("${", i);
+                int close = open < 0 ? -1 : text.indexOf('}', open + 2);
+                if (close < 0) {
+                    parts.add(text.substring(i));
+                    break;
+                }
+                parts.add(text.substring(i, open));
+                parts.add(text.substring(open + 2, close));
+                i = close + 1;
+            }
+            this.parts = parts.toArray(new String[0]);
+        }
+
+        void appendTo(Utf8Buffer out, TokenWriter tokens) {
+            for (int i = 0; i < this.parts.length; i++) {
+                if ((i & 1) == 0) {
+                    out.append(this.parts[i]);
+                } else {
+                    tokens.write(this.parts[i], out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the value of a token, see PlaylistTemplate for why this is not always a map lookup
+     */
+    interface TokenWriter {
+        void write(String name, Utf8Buffer out);
+    }
+
+    /**
+     * @param tokens Token values, may be null if there are no tokens to write
+     */
+    static TokenWriter tokenWriterOf(final Map<String, String> tokens) {
+        return new TokenWriter() {
+            @Override
+            public void write(String name, Utf8Buffer out) {
+                String value = tokens == null ? null : tokens.get(name);
+                if (value == null) {
+                    throw new RuntimeException("No value for token: " + name);
+                }
+                out.append(value);
+            }
+        };
+    }
+
+    public static final class Builder {
+        private final ArrayList<String> pathPrefixes = new ArrayList<>();
+        private final ArrayList<Template> pathReplacements = new ArrayList<>();
+        private final ArrayList<String> setNames = new ArrayList<>();
+        private final ArrayList<Template> setValues = new ArrayList<>();
+        private final ArrayList<String> appendNames = new ArrayList<>();
+        private final ArrayList<Template> appendValues = new ArrayList<>();
+        private final ArrayList<String> removeNames = new ArrayList<>();
+        private Template suffix = null;
+
+        /**
+         * Swaps the beginning of the path (or of the whole URI, for absolute ones). The first matching prefix wins.
+         */
+        public Builder replacePathPrefix(String prefix, String replacement) {
+            this.pathPrefixes.add(prefix);
+            this.pathReplacements.add(new Template(replacement));
+            return this;
+        }
+
+        /**
+         * Sets the parameter: replaces its value where it is present (duplicates are dropped), appends it otherwise.
+         * @param value Null to write the parameter without value
+         */
+        public Builder setQueryParameter(String name, String value) {
+            if (this.setNames.size() == Long.SIZE) {
+                throw new RuntimeException("Too many parameters to set, at most " + Long.SIZE);
+            }
+            this.setNames.add(name);
+            this.setValues.add(value == null ? null : new Template(value));
+            return this;
+        }
+
+        /**
+         * Appends the parameter, whether it is present or not
+         * @param value Null to write the parameter without value
+         */
+        public Builder appendQueryParameter(String name, String value) {
+            this.appendNames.add(name);
+            this.appendValues.add(value == null ? null : new Template(value));
+            return this;
+        }
+
+        public Builder removeQueryParameter(String name) {
+            this.removeNames.add(name);
+            return this;
+        }
+
+        /**
+         * Appends raw text at the very end of the URI, like addTrailerToEachURL did
+         */
+        public Builder appendSuffix(String suffix) {
+            this.suffix = new Template(suffix);
+            return this;
+        }
+
+        public UrlRewriter build() {
+            return new UrlRewriter(this);
+        }
+    }
+
+    private final String[] pathPrefixes;
+    private final Template[] pathReplacements;
+    private final String[] setNames;
+    private final Template[] setValues;
+    private final String[] appendNames;
+    private final Template[] appendValues;
+    private final String[] removeNames;
+    private final Template suffix;
+    private final List<String> tokenNames;
+
+    private UrlRewriter(Builder builder) {
+        this.pathPrefixes = builder.pathPrefixes.toArray(new String[0]);
+        this.pathReplacements = builder.pathReplacements.toArray(new Template[0]);
+        this.setNames = builder.setNames.toArray(new String[0]);
+        this.setValues = builder.setValues.toArray(new Template[0]);
+        this.appendNames = builder.appendNames.toArray(new String[0]);
+        this.appendValues = builder.appendValues.toArray(new Template[0]);
+        this.removeNames = builder.removeNames.toArray(new String[0]);
+        this.suffix = builder.suffix;
+
+        ArrayList<String> tokenNames = new ArrayList<>();
+        ArrayList<Template> templates = new ArrayList<>(builder.pathReplacements);
+        templates.addAll(builder.setValues);
+        templates.addAll(builder.appendValues);
+        templates.add(builder.suffix);
+        for (Template template : templates) {
+            if (template == null) {
+                continue;
+            }
+            for (int i = 1; i < template.parts.length; i += 2) {
+                if (!tokenNames.contains(template.parts[i])) {
+                    tokenNames.add(template.parts[i]);
+                }
+            }
+        }
+        this.tokenNames = Collections.unmodifiableList(tokenNames);
+    }
+
+    /**
+     * @return Names of the tokens the rules refer to, which rewrite() needs values for
+     */
+    public List<String> getTokenNames() {
+        return this.tokenNames;
+    }
+
+    /**
+     * @param tokens Token values, may be null if the rules have no tokens
+     * @return The rewritten URI
+     */
+    public String rewrite(String uri, Map<String, String> tokens) {
+        Utf8Buffer out = new Utf8Buffer(uri.length() + 64);
+        this.rewrite(uri, tokens, out);
+        return out.toString();
+    }
+
+    /**
+     * Writes the rewritten URI to out, without any intermediate string
+     * @param tokens Token values, may be null if the rules have no tokens
+     */
+    public void rewrite(String uri, Map<String, String> tokens, Utf8Buffer out) {
+        this.rewrite(uri, tokenWriterOf(tokens), out);
+    }
+
+    void rewrite(String uri, TokenWriter tokens, Utf8Buffer out) {
+        int length = uri.length();
+        int fragment = uri.indexOf('#');
+        int end = fragment < 0 ? length : fragment;
+        int query = uri.indexOf('?');
+        if (query >= end) {
+            query = -1;
+        }
+        int pathEnd = query < 0 ? end : query;
+
+        // Path
+        int pathStart = 0;
+        for (int i = 0; i < this.pathPrefixes.length; i++) {
+            String prefix = this.pathPrefixes[i];
+            if (prefix.length() <= pathEnd && uri.startsWith(prefix)) {
+                this.pathReplacements[i].appendTo(out, tokens);
+                pathStart = prefix.length();
+                break;
+            }
+        }
+        out.append(uri, pathStart, pathEnd);
+
+        // Query
+        boolean first = true;
+        long replaced = 0;
+        if (query >= 0) {
+            int start = query + 1;
+            while (start <= end) {
+                int paramEnd = uri.indexOf('&', start);
+                if (paramEnd < 0 || paramEnd > end) {
+                    paramEnd = end;
+                }
+                int nameEnd = uri.indexOf('=', start);
+                if (nameEnd < 0 || nameEnd > paramEnd) {
+                    nameEnd = paramEnd;
+                }
+
+                if (paramEnd > start && indexOf(this.removeNames, uri, start, nameEnd) < 0) {
+                    int set = indexOf(this.setNames, uri, start, nameEnd);
+                    if (set < 0) {
+                        out.append(first ? '?' : '&').append(uri, start, paramEnd);
+                        first = false;
+                    } else if ((replaced & (1L << set)) == 0) {
+                        replaced |= 1L << set;
+                        this.appendParameter(out, first, this.setNames[set], this.setValues[set], tokens);
+                        first = false;
+                    }
+                }
+                start = paramEnd + 1;
+            }
+        }
+        for (int i = 0; i < this.setNames.length; i++) {
+            if ((replaced & (1L << i)) == 0) {
+                this.appendParameter(out, first, this.setNames[i], this.setValues[i], tokens);
+                first = false;
+            }
+        }
+        for (int i = 0; i < this.appendNames.length; i++) {
+            this.appendParameter(out, first, this.appendNames[i], this.appendValues[i], tokens);
+            first = false;
+        }
+
+        // Fragment
+        out.append(uri, end, length);
+
+        if (this.suffix != null) {
+            this.suffix.appendTo(out, tokens);
+        }
+    }
+
+    private void appendParameter(Utf8Buffer out, boolean first, String name, Template value, TokenWriter tokens) {
+        out.append(first ? '?' : '&').append(name);
+        if (value != null) {
+            out.append('=');
+            value.appendTo(out, tokens);
+        }
+    }
+
+    /**
+     * @return Index of the name equal to s[start, end[, or -1
+     */
+    private static int indexOf(String[] names, String s, int start, int end) {
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (name.length() == end - start && s.regionMatches(start, name, 0, name.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
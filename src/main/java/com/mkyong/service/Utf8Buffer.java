@@ -0,0 +1,176 @@
+package com.mkyong.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer we serialize playlists into. Chars are encoded to UTF-8 as they get appended,
+ * numbers are written digit by digit, so appending never creates intermediate strings.
+ * Not thread-safe, but meant to be reused (see reset()).
+ */
+public final class Utf8Buffer {
+
+    private byte[] bytes;
+    private int size = 0;
+
+    public Utf8Buffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int capacity() {
+        return this.bytes.length;
+    }
+
+    /**
+     * Empties the buffer but keeps its capacity
+     */
+    public void reset() {
+        this.size = 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(capacity, this.bytes.length * 2));
+        }
+    }
+
+    public Utf8Buffer append(char c) {
+        if (c < 0x80) {
+            this.ensureCapacity(this.size + 1);
+            this.bytes[this.size++] = (byte) c;
+        } else {
+            this.appendNonAscii(c, (char) 0);
+        }
+        return this;
+    }
+
+    public Utf8Buffer append(CharSequence s) {
+        return this.append(s, 0, s.length());
+    }
+
+    /**
+     * Appends the chars of s in [start, end[
+     */
+    public Utf8Buffer append(CharSequence s, int start, int end) {
+        this.ensureCapacity(this.size + end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                // we reserved one byte per char above, enough for ASCII
+                this.bytes[this.size++] = (byte) c;
+            } else {
+                char next = i + 1 < end ? s.charAt(i + 1) : (char) 0;
+                if (this.appendNonAscii(c, next)) {
+                    i++;
+                }
+                this.ensureCapacity(this.size + end - i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the chars of s in [start, end[, same as above without going through a CharSequence
+     */
+    public Utf8Buffer append(char[] s, int start, int end) {
+        this.ensureCapacity(this.size + end - start);
+        for (int i = start; i < end; i++) {
+            char c = s[i];
+            if (c < 0x80) {
+                this.bytes[this.size++] = (byte) c;
+            } else {
+                char next = i + 1 < end ? s[i + 1] : (char) 0;
+                if (this.appendNonAscii(c, next)) {
+                    i++;
+                }
+                this.ensureCapacity(this.size + end - i);
+            }
+        }
+        return this;
+    }
+
+    public Utf8Buffer append(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return this.append(Long.toString(value));
+            }
+            this.append('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        this.ensureCapacity(this.size + digits);
+        for (int i = this.size + digits - 1; i >= this.size; i--) {
+            this.bytes[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        this.size += digits;
+        return this;
+    }
+
+    /**
+     * Writes the whole content and flushes the stream once.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(this.bytes, 0, this.size);
+        out.flush();
+    }
+
+    /**
+     * Copies the whole content into target, in one bulk put.
+     * @throws java.nio.BufferOverflowException if target has not enough space left (target is unchanged then)
+     */
+    public void writeTo(ByteBuffer target) {
+        target.put(this.bytes, 0, this.size);
+    }
+
+    /**
+     * @return A view on the content (no copy), only valid until this buffer is modified again
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(this.bytes, 0, this.size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.bytes, 0, this.size, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return True if next was consumed too (surrogate pair)
+     */
+    private boolean appendNonAscii(char c, char next) {
+        this.ensureCapacity(this.size + 4);
+        if (c < 0x800) {
+            this.bytes[this.size++] = (byte) (0xC0 | (c >> 6));
+            this.bytes[this.size++] = (byte) (0x80 | (c & 0x3F));
+            return false;
+        }
+        if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+            int codePoint = Character.toCodePoint(c, next);
+            this.bytes[this.size++] = (byte) (0xF0 | (codePoint >> 18));
+            this.bytes[this.size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            this.bytes[this.size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            this.bytes[this.size++] = (byte) (0x80 | (codePoint & 0x3F));
+            return true;
+        }
+        if (Character.isSurrogate(c)) {
+            // unpaired surrogate, same replacement as the JDK encoder
+            this.bytes[this.size++] = (byte) '?';
+            return false;
+        }
+        this.bytes[this.size++] = (byte) (0xE0 | (c >> 12));
+        this.bytes[this.size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        this.bytes[this.size++] = (byte) (0x80 | (c & 0x3F));
+        return false;
+    }
+}
@@ -0,0 +1,269 @@
+package com.mkyong.service;
+
+import com.mkyong.service.hlsM3u8Parser.Codec;
+import com.mkyong.service.hlsM3u8Parser.Resolution;
+import com.mkyong.service.hlsM3u8Parser.StreamInfoEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index over the variants of a master playlist, built once and then queried for every client request.
+ *
+ * Variants are sorted by bandwidth, and partitioned by codec family and by resolution, so that
+ * "best variant under N bps with codec X (and resolution WxH)" is a binary search in the matching partition
+ * instead of a scan over all variants.
+ *
+ * Thread-safe.
+ */
+public final class VariantIndex {
+
+    /**
+     * Codec families a variant can be partitioned by, see Codec.isAVC/isAAC/isMP3
+     */
+    public enum CodecFamily {
+        AVC,
+        AAC,
+        MP3;
+
+        boolean matches(Codec codec) {
+            switch (this) {
+                case AVC:
+                    return codec.isAVC();
+                case AAC:
+                    return codec.isAAC();
+                case MP3:
+                    return codec.isMP3();
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Variants sharing some property, sorted by bandwidth
+     */
+    public static final class Partition {
+        private final StreamInfoEntry[] variants;
+        private final int[] bandwidths;
+
+        private Partition(List<StreamInfoEntry> sortedVariants) {
+            this.variants = sortedVariants.toArray(new StreamInfoEntry[0]);
+            this.bandwidths = new int[this.variants.length];
+            for (int i = 0; i < this.variants.length; i++) {
+                this.bandwidths[i] = this.variants[i].getBandwidth();
+            }
+        }
+
+        public int size() {
+            return this.variants.length;
+        }
+
+        /**
+         * O(log n)
+         * @return Variant with the highest bandwidth not above maxBandwidth, or null if all are above it.
+         * Between variants with the same bandwidth, the last one in playlist order wins.
+         */
+        public StreamInfoEntry best(int maxBandwidth) {
+            // first variant above maxBandwidth
+            int low = 0;
+            int high = this.bandwidths.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.bandwidths[middle] > maxBandwidth) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low == 0 ? null : this.variants[low - 1];
+        }
+
+        /**
+         * @return Variant with the lowest bandwidth, or null if the partition is empty
+         */
+        public StreamInfoEntry lowest() {
+            return this.variants.length == 0 ? null : this.variants[0];
+        }
+
+        /**
+         * @return Variant with the highest bandwidth, or null if the partition is empty
+         */
+        public StreamInfoEntry highest() {
+            return this.variants.length == 0 ? null : this.variants[this.variants.length - 1];
+        }
+
+        /**
+         * @return The variants, lowest bandwidth first
+         */
+        public List<StreamInfoEntry> getVariants() {
+            return Collections.unmodifiableList(Arrays.asList(this.variants));
+        }
+    }
+
+    private static final Partition EMPTY = new Partition(Collections.<StreamInfoEntry>emptyList());
+
+    private static final Comparator<StreamInfoEntry> BY_BANDWIDTH = new Comparator<StreamInfoEntry>() {
+        @Override
+        public int compare(StreamInfoEntry a, StreamInfoEntry b) {
+            return Integer.compare(a.getBandwidth(), b.getBandwidth());
+        }
+    };
+
+    public static VariantIndex of(hlsM3u8Parser parser) {
+        return of(parser.getStreamInfoEntries());
+    }
+
+    public static VariantIndex of(List<StreamInfoEntry> variants) {
+        // stable sort, so playlist order is kept between equal bandwidths
+        ArrayList<StreamInfoEntry> sorted = new ArrayList<>(variants);
+        Collections.sort(sorted, BY_BANDWIDTH);
+
+        EnumMap<CodecFamily, List<StreamInfoEntry>> byFamily = new EnumMap<>(CodecFamily.class);
+        HashMap<Long, List<StreamInfoEntry>> byResolution = new HashMap<>();
+        EnumMap<CodecFamily, HashMap<Long, List<StreamInfoEntry>>> byFamilyAndResolution = new EnumMap<>(CodecFamily.class);
+
+        for (StreamInfoEntry variant : sorted) {
+            Resolution resolution = variant.getResolution();
+            if (resolution != null) {
+                add(byResolution, resolutionKey(resolution.getWidth(), resolution.getHeight()), variant);
+            }
+            for (CodecFamily family : familiesOf(variant)) {
+                List<StreamInfoEntry> list = byFamily.get(family);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    byFamily.put(family, list);
+                }
+                list.add(variant);
+                if (resolution != null) {
+                    HashMap<Long, List<StreamInfoEntry>> byResolutionOfFamily = byFamilyAndResolution.get(family);
+                    if (byResolutionOfFamily == null) {
+                        byResolutionOfFamily = new HashMap<>();
+                        byFamilyAndResolution.put(family, byResolutionOfFamily);
+                    }
+                    add(byResolutionOfFamily, resolutionKey(resolution.getWidth(), resolution.getHeight()), variant);
+                }
+            }
+        }
+
+        EnumMap<CodecFamily, Partition> familyPartitions = new EnumMap<>(CodecFamily.class);
+        for (Map.Entry<CodecFamily, List<StreamInfoEntry>> e : byFamily.entrySet()) {
+            familyPartitions.put(e.getKey(), new Partition(e.getValue()));
+        }
+        EnumMap<CodecFamily, HashMap<Long, Partition>> familyAndResolutionPartitions = new EnumMap<>(CodecFamily.class);
+        for (Map.Entry<CodecFamily, HashMap<Long, List<StreamInfoEntry>>> e : byFamilyAndResolution.entrySet()) {
+            familyAndResolutionPartitions.put(e.getKey(), partitions(e.getValue()));
+        }
+        return new VariantIndex(new Partition(sorted), familyPartitions, partitions(byResolution), familyAndResolutionPartitions);
+    }
+
+    private static List<CodecFamily> familiesOf(StreamInfoEntry variant) {
+        List<Codec> codecs = variant.getCodecsList();
+        if (codecs == null) {
+            return Collections.emptyList();
+        }
+        ArrayList<CodecFamily> families = new ArrayList<>(2);
+        for (CodecFamily family : CodecFamily.values()) {
+            for (Codec codec : codecs) {
+                if (family.matches(codec)) {
+                    families.add(family);
+                    break;
+                }
+            }
+        }
+        return families;
+    }
+
+    /**
+     * Note: Both halves are kept whole, Resolution accepts values up to 2^32-1 (stored as negative ints)
+     */
+    private static long resolutionKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    private static void add(Map<Long, List<StreamInfoEntry>> map, long key, StreamInfoEntry variant) {
+        List<StreamInfoEntry> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        list.add(variant);
+    }
+
+    private static HashMap<Long, Partition> partitions(Map<Long, List<StreamInfoEntry>> lists) {
+        HashMap<Long, Partition> partitions = new HashMap<>();
+        for (Map.Entry<Long, List<StreamInfoEntry>> e : lists.entrySet()) {
+            partitions.put(e.getKey(), new Partition(e.getValue()));
+        }
+        return partitions;
+    }
+
+    private final Partition all;
+    private final EnumMap<CodecFamily, Partition> byFamily;
+    private final HashMap<Long, Partition> byResolution;
+    private final EnumMap<CodecFamily, HashMap<Long, Partition>> byFamilyAndResolution;
+
+    private VariantIndex(Partition all, EnumMap<CodecFamily, Partition> byFamily, HashMap<Long, Partition> byResolution,
+                         EnumMap<CodecFamily, HashMap<Long, Partition>> byFamilyAndResolution) {
+        this.all = all;
+        this.byFamily = byFamily;
+        this.byResolution = byResolution;
+        this.byFamilyAndResolution = byFamilyAndResolution;
+    }
+
+    public int size() {
+        return this.all.size();
+    }
+
+    /**
+     * @return All variants
+     */
+    public Partition all() {
+        return this.all;
+    }
+
+    /**
+     * @return Variants having at least one codec of that family (empty partition if none)
+     */
+    public Partition withCodec(CodecFamily family) {
+        Partition partition = this.byFamily.get(family);
+        return partition != null ? partition : EMPTY;
+    }
+
+    /**
+     * @return Variants with exactly that resolution (empty partition if none)
+     */
+    public Partition withResolution(int width, int height) {
+        Partition partition = this.byResolution.get(resolutionKey(width, height));
+        return partition != null ? partition : EMPTY;
+    }
+
+    /**
+     * @return Variants having a codec of that family and exactly that resolution (empty partition if none)
+     */
+    public Partition withCodecAndResolution(CodecFamily family, int width, int height) {
+        HashMap<Long, Partition> byResolutionOfFamily = this.byFamilyAndResolution.get(family);
+        Partition partition = byResolutionOfFamily == null ? null : byResolutionOfFamily.get(resolutionKey(width, height));
+        return partition != null ? partition : EMPTY;
+    }
+
+    /**
+     * @return Variant with the highest bandwidth not above maxBandwidth, or null if none fits
+     */
+    public StreamInfoEntry best(int maxBandwidth) {
+        return this.all.best(maxBandwidth);
+    }
+
+    /**
+     * @return Variant with a codec of that family and the highest bandwidth not above maxBandwidth, or null if none fits
+     */
+    public StreamInfoEntry best(int maxBandwidth, CodecFamily family) {
+        return this.withCodec(family).best(maxBandwidth);
+    }
+}
@@ -1,18 +1,41 @@
 package com.mkyong.service;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class hlsM3u8Parser {
 
+    /**
+     * @return s without the c chars and whitespaces around it, e.g the quotes of a quoted-string.
+     * Note: Whitespaces inside are kept as they are (NAME="English (US)", or an EXTINF title)
+     */
     private static String unwrapString(String s, char c) {
-        return s.replace(c, ' ').trim().replace(' ', c);
+        int start = 0;
+        int end = s.length();
+        while (start < end && (s.charAt(start) == c || s.charAt(start) <= ' ')) {
+            start++;
+        }
+        while (end > start && (s.charAt(end - 1) == c || s.charAt(end - 1) <= ' ')) {
+            end--;
+        }
+        return s.substring(start, end);
     }
 
     private static String tokenStringToEnumName(String s) {
@@ -26,15 +49,45 @@ public class hlsM3u8Parser {
 
     public static final float MEDIA_DURATION_NONE = -1;
 
+    /**
+     * Size of the chunks (in chars) in which we consume the input stream while parsing.
+     * This bounds the memory we need for reading, independently of the playlist size.
+     */
+    public static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Files smaller than this are read into the heap rather than memory-mapped, since mapping has a fixed cost
+     */
+    public static final int MIN_MAPPED_FILE_SIZE = 64 * 1024;
+
+    // Serialization buffer sizing: initial guess per entry (plus per URL), and the most we keep around per thread
+    private static final int ESTIMATED_ENTRY_SIZE = 32;
+    private static final int ESTIMATED_URL_SIZE = 96;
+    private static final int MAX_RETAINED_WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Most diagnostics we keep per parse, so that a garbage input doesn't make us hold one per line
+     */
+    public static final int MAX_DIAGNOSTICS = 1000;
+
+    private static final ThreadLocal<Utf8Buffer> WRITE_BUFFER = new ThreadLocal<Utf8Buffer>() {
+        @Override
+        protected Utf8Buffer initialValue() {
+            return new Utf8Buffer(READ_BUFFER_SIZE);
+        }
+    };
+
     // public static final String FILE_BEGIN_REGEX = "#EXTM3U";
     // public static final String ENTRY_BEGIN_REGEX = "#";
     // public static final String LINE_END_REGEX = "([^\n\r]*)";
 
     public static final String INTEGER_REGEX = "^\\d+";
-    public static final String ENTRY_REGEX = "#([1-9A-Z-]+)(:[@A-Za-z0-9-=,\"._ ]+)?";
+    // Note: Values may be anything up to the line end, e.g URIs or dates in quoted-strings
+    public static final String ENTRY_REGEX = "#([1-9A-Z-]+)(:.+)?";
     public static final String COMMENT_REGEX = "##(.+)?";
 
     public static final String CSV_ATTRIBUTES_LIST_REGEX = "\\s*(.+?)\\s*=((?:\".*?\")|.*?)(?:,|$)";
+    private static final Pattern CSV_ATTRIBUTES_LIST_PATTERN = Pattern.compile(CSV_ATTRIBUTES_LIST_REGEX);
 
     public static final String ENTRY_SPLIT_CHAR = ":";
     public static final String VALUES_SPLIT_CHAR = ",";
@@ -42,20 +95,46 @@ public class hlsM3u8Parser {
     public static final String RESOLUTION_SPLIT_CHAR = "x";
 
 
+    /**
+     * The tags of RFC 8216 and of its second edition (low-latency HLS)
+     */
     public enum EntryType  {
         EXTINF("EXTINF"),
         EXT_X_STREAM_INF("EXT-X-STREAM-INF"),
         EXT_X_MEDIA("EXT-X-MEDIA"),
         EXT_X_BYTERANGE("EXT-X-BYTERANGE"),
-        // TODO read values from below entries
+        EXT_X_MEDIA_SEQUENCE("EXT-X-MEDIA-SEQUENCE"),
+        EXT_X_TARGETDURATION("EXT-X-TARGETDURATION"),
         EXTM3U("EXTM3U"),
         EXT_X_VERSION("EXT-X-VERSION"),
-        EXT_X_TARGETDURATION("EXT-X-TARGETDURATION"),
         EXT_X_PLAYLIST_TYPE("EXT-X-PLAYLIST-TYPE"),
         EXT_X_ENDLIST("EXT-X-ENDLIST"),
         EXT_X_MAP("EXT-X-MAP"),
-        EXT_X_MEDIA_SEQUENCE("EXT_X_MEDIA_SEQUENCE"),
-        EXT_X_DISCONTINUITY("EXT_X_DISCONTINUITY");
+        EXT_X_DISCONTINUITY("EXT-X-DISCONTINUITY"),
+        EXT_X_DISCONTINUITY_SEQUENCE("EXT-X-DISCONTINUITY-SEQUENCE"),
+        EXT_X_KEY("EXT-X-KEY"),
+        EXT_X_PROGRAM_DATE_TIME("EXT-X-PROGRAM-DATE-TIME"),
+        EXT_X_DATERANGE("EXT-X-DATERANGE"),
+        EXT_X_GAP("EXT-X-GAP"),
+        EXT_X_BITRATE("EXT-X-BITRATE"),
+        EXT_X_I_FRAMES_ONLY("EXT-X-I-FRAMES-ONLY"),
+        EXT_X_I_FRAME_STREAM_INF("EXT-X-I-FRAME-STREAM-INF"),
+        EXT_X_SESSION_DATA("EXT-X-SESSION-DATA"),
+        EXT_X_SESSION_KEY("EXT-X-SESSION-KEY"),
+        EXT_X_INDEPENDENT_SEGMENTS("EXT-X-INDEPENDENT-SEGMENTS"),
+        EXT_X_START("EXT-X-START"),
+        EXT_X_DEFINE("EXT-X-DEFINE"),
+        EXT_X_CONTENT_STEERING("EXT-X-CONTENT-STEERING"),
+        EXT_X_ALLOW_CACHE("EXT-X-ALLOW-CACHE"),
+        // Low-latency HLS
+        EXT_X_PART_INF("EXT-X-PART-INF"),
+        EXT_X_SERVER_CONTROL("EXT-X-SERVER-CONTROL"),
+        EXT_X_PART("EXT-X-PART"),
+        EXT_X_PRELOAD_HINT("EXT-X-PRELOAD-HINT"),
+        EXT_X_RENDITION_REPORT("EXT-X-RENDITION-REPORT"),
+        EXT_X_SKIP("EXT-X-SKIP"),
+        // Not a tag: lines kept as they are in lenient mode, see PassthroughEntry
+        UNKNOWN("UNKNOWN");
 
         private final String token;
 
@@ -75,10 +154,13 @@ public class hlsM3u8Parser {
             entryType = unwrapString(tokenStringToEnumName(entryType), '#');
             try {
                 EntryType e = EntryType.valueOf(entryType);
-                return e;
+                if (e != UNKNOWN) {
+                    return e;
+                }
             } catch(IllegalArgumentException ex) {
-                throw new RuntimeException("Unknown entry type token: " + entryType);
+                // reported below
             }
+            throw new RuntimeException("Unknown entry type token: " + entryType);
         }
 
         boolean hasURL() {
@@ -106,7 +188,48 @@ public class hlsM3u8Parser {
         NAME("NAME"),
         AUDIO("AUDIO"),
         VIDEO("VIDEO"),
-        SUBTILES("SUBTITLES");
+        SUBTITLES("SUBTITLES"),
+        // EXT-X-STREAM-INF, EXT-X-I-FRAME-STREAM-INF
+        AVERAGE_BANDWIDTH("AVERAGE-BANDWIDTH"),
+        FRAME_RATE("FRAME-RATE"),
+        HDCP_LEVEL("HDCP-LEVEL"),
+        CLOSED_CAPTIONS("CLOSED-CAPTIONS"),
+        VIDEO_RANGE("VIDEO-RANGE"),
+        ALLOWED_CPC("ALLOWED-CPC"),
+        STABLE_VARIANT_ID("STABLE-VARIANT-ID"),
+        PATHWAY_ID("PATHWAY-ID"),
+        SCORE("SCORE"),
+        SUPPLEMENTAL_CODECS("SUPPLEMENTAL-CODECS"),
+        REQ_VIDEO_LAYOUT("REQ-VIDEO-LAYOUT"),
+        // EXT-X-MEDIA
+        ASSOC_LANGUAGE("ASSOC-LANGUAGE"),
+        DEFAULT("DEFAULT"),
+        AUTOSELECT("AUTOSELECT"),
+        FORCED("FORCED"),
+        INSTREAM_ID("INSTREAM-ID"),
+        CHARACTERISTICS("CHARACTERISTICS"),
+        CHANNELS("CHANNELS"),
+        STABLE_RENDITION_ID("STABLE-RENDITION-ID"),
+        BIT_DEPTH("BIT-DEPTH"),
+        SAMPLE_RATE("SAMPLE-RATE"),
+        // EXT-X-KEY, EXT-X-SESSION-KEY, EXT-X-MAP
+        METHOD("METHOD"),
+        IV("IV"),
+        KEYFORMAT("KEYFORMAT"),
+        KEYFORMATVERSIONS("KEYFORMATVERSIONS"),
+        BYTERANGE("BYTERANGE"),
+        // EXT-X-DATERANGE, EXT-X-SESSION-DATA, EXT-X-START
+        ID("ID"),
+        CLASS("CLASS"),
+        START_DATE("START-DATE"),
+        END_DATE("END-DATE"),
+        DURATION("DURATION"),
+        PLANNED_DURATION("PLANNED-DURATION"),
+        END_ON_NEXT("END-ON-NEXT"),
+        DATA_ID("DATA-ID"),
+        VALUE("VALUE"),
+        TIME_OFFSET("TIME-OFFSET"),
+        PRECISE("PRECISE");
 
         private final String attribute;
 
@@ -120,39 +243,100 @@ public class hlsM3u8Parser {
         }
 
         static AttributeType fromString(String attribute) {
-            try {
-                AttributeType a = AttributeType.valueOf(tokenStringToEnumName(attribute));
-                return a;
-            } catch(IllegalArgumentException ex) {
+            AttributeType a = lookup(attribute);
+            if (a == null) {
                 throw new RuntimeException("Unknown attribute type token: " + attribute);
             }
+            return a;
         }
+
+        /**
+         * @return The type, or null if the attribute is unknown
+         */
+        static AttributeType lookup(String attribute) {
+            String name = attribute.trim();
+            for (AttributeType a : VALUES) {
+                if (a.attribute.equals(name)) {
+                    return a;
+                }
+            }
+            return null;
+        }
+
+        private static final AttributeType[] VALUES = values();
     }
 
     public static class Attribute {
         Attribute(String a) {
-            String[] parsedAttribute = a.split(ATTRIBUTES_SPLIT_CHAR);
-            if (parsedAttribute.length != 2) {
+            this(a, false);
+        }
+
+        /**
+         * @param lenient When set, unknown attributes are kept (with a null type) instead of rejected
+         */
+        Attribute(String a, boolean lenient) {
+            // Note: Only the first '=' splits, quoted values (e.g URIs) may contain more
+            int split = a.indexOf(ATTRIBUTES_SPLIT_CHAR);
+            if (split <= 0) {
                 throw new RuntimeException("Malformed attribute: " + a);
             }
-            this.type = AttributeType.fromString(parsedAttribute[0]);
-            this.value = parsedAttribute[1].trim();
+            this.name = a.substring(0, split).trim();
+            this.type = lenient ? AttributeType.lookup(this.name) : AttributeType.fromString(this.name);
+            this.value = a.substring(split + 1).trim();
         }
 
         public String toString() {
-            return this.type + "=" + this.value;
+            return this.name + "=" + this.value;
+        }
+
+        /**
+         * @return Type of the attribute, null if it's unknown (lenient mode only)
+         */
+        public AttributeType getType() {
+            return this.type;
+        }
+
+        /**
+         * @return Name of the attribute as written, e.g FRAME-RATE
+         */
+        public String getName() {
+            return this.name;
         }
 
         public String getValue() {
+            if (this.type == null) {
+                // Unknown, so we can't tell if it's a quoted-string: keep it as written
+                return this.value;
+            }
             switch(this.type) {
                 case URI:
                 case LANGUAGE:
                 case CODECS:
                 case AUDIO:
                 case VIDEO:
-                case SUBTILES:
+                case SUBTITLES:
                 case NAME:
                 case GROUP_ID:
+                case CLOSED_CAPTIONS:
+                case ASSOC_LANGUAGE:
+                case INSTREAM_ID:
+                case CHARACTERISTICS:
+                case CHANNELS:
+                case STABLE_VARIANT_ID:
+                case STABLE_RENDITION_ID:
+                case PATHWAY_ID:
+                case SUPPLEMENTAL_CODECS:
+                case REQ_VIDEO_LAYOUT:
+                case ALLOWED_CPC:
+                case KEYFORMAT:
+                case KEYFORMATVERSIONS:
+                case BYTERANGE:
+                case ID:
+                case CLASS:
+                case START_DATE:
+                case END_DATE:
+                case DATA_ID:
+                case VALUE:
                     return unwrapString(this.value, '"');
                 default:
                     return this.value;
@@ -160,45 +344,55 @@ public class hlsM3u8Parser {
         }
 
         private final AttributeType type;
+        private final String name;
         private String value;
     }
 
 
     public static class Entry {
         Entry(String e) {
-            if (!Entry.couldBe(e)) {
-                throw new RuntimeException("Failed to parse malformed entry: " + e);
-            }
+            this(e, Entry.typeOf(e));
+        }
+
+        Entry(String e, EntryType type) {
+            this(e, type, false);
+        }
+
+        /**
+         * @param e Line that is known to be an entry (see M3u8Tokenizer.isTag)
+         * @param type Type of the entry, as identified by the tokenizer
+         * @param lazy When set, we only remember where the values are in the line and decode them on demand
+         */
+        Entry(String e, EntryType type, boolean lazy) {
+            this.type = type;
 
             // pre: e can be #SOME-TOKEN:XXXX
             // or it can be #SOME-TOKEN and that's it
-            String[] parsedEntry;
-            if (e.contains(ENTRY_SPLIT_CHAR)) {
-                parsedEntry = e.split(ENTRY_SPLIT_CHAR);
-            } else {
-                parsedEntry = new String[1];
-                parsedEntry[0] = e;
+            int valuesStart = M3u8Tokenizer.valuesStart(e);
+
+            if (lazy) {
+                this.source = e;
+                this.valueBounds = valuesStart > 0 ? scanValueBounds(e, valuesStart) : new int[0];
+                this.values = null;
+                return;
             }
-            // post: parsedEntry is {#SOME-TOKEN, XXXX} (as applicable)
 
-            // set EntryType from first part (#SOME-TOKEN)
-            // note: this method accepts token with #
-            this.type = EntryType.fromString(parsedEntry[0]);
+            this.source = null;
+            this.valueBounds = null;
 
             ArrayList<String> valuesList = new ArrayList<>();
 
             // There are some comma-separated-values behind
-            if (parsedEntry.length > 1) {
+            if (valuesStart > 0) {
 
-                String rawValues = parsedEntry[1];
+                String rawValues = e.substring(valuesStart);
 
                 //log.info(rawValues);
 
-                if (rawValues.contains(VALUES_SPLIT_CHAR)) { // CSV string (may be single value too, see Shaka media playlists)
+                if (isAttributeList(rawValues)) { // CSV string (may be single value too, see Shaka media playlists)
                     //values = rawValues.split(VALUES_SPLIT_CHAR);
 
-                    Pattern p = Pattern.compile(CSV_ATTRIBUTES_LIST_REGEX);
-                    Matcher m = p.matcher(rawValues);
+                    Matcher m = CSV_ATTRIBUTES_LIST_PATTERN.matcher(rawValues);
                     while(m.find()) {
                         //log.info("Found CSV list item: " + m.group());
                         valuesList.add(
@@ -214,6 +408,8 @@ public class hlsM3u8Parser {
                         valuesList.add(unwrapString(rawValues, ','));
                     }
 
+                } else if (rawValues.contains(VALUES_SPLIT_CHAR)) { // e.g EXTINF duration and title, the title may hold commas and '='
+                    valuesList.add(unwrapString(rawValues, ','));
                 } else { // non-CSV (can only be a single value, faster then matching regex) (maybe could be removed since handled above kind off)
                     valuesList.add(rawValues);
                 }
@@ -226,8 +422,94 @@ public class hlsM3u8Parser {
             this.values = valuesList;
         }
 
+        /**
+         * Entry without values, see PassthroughEntry
+         */
+        Entry(EntryType type) {
+            this.type = type;
+            this.source = null;
+            this.valueBounds = null;
+            this.values = new ArrayList<>(0);
+        }
+
         static boolean couldBe(String e) {
-            return e.matches(ENTRY_REGEX);
+            return M3u8Tokenizer.isTag(e);
+        }
+
+        private static EntryType typeOf(String e) {
+            if (!Entry.couldBe(e)) {
+                throw new RuntimeException("Failed to parse malformed entry: " + e);
+            }
+            return entryTypeOf(e);
+        }
+
+        /**
+         * @return True for values to split at their commas, i.e an attribute list: the first value is KEY=VALUE.
+         * Note: Judged on the first value only, e.g an EXTINF title may hold a '=' as well.
+         */
+        private static boolean isAttributeList(String e, int from) {
+            int comma = e.indexOf(',', from);
+            int equals = e.indexOf('=', from);
+            return comma >= 0 && equals >= 0 && equals < comma;
+        }
+
+        private static boolean isAttributeList(String rawValues) {
+            return isAttributeList(rawValues, 0);
+        }
+
+        /**
+         * Finds the same values as the eager constructor does: only attribute lists (KEY=VALUE,...) are split, at the
+         * commas which are not inside a quoted string, and their values trimmed. Anything else (e.g an EXTINF duration
+         * and title) is one value, kept as written.
+         * @return [start, end[ offsets of each value in the line, two ints per value
+         */
+        private static int[] scanValueBounds(String e, int from) {
+            int length = e.length();
+            if (e.indexOf(',', from) < 0) {
+                return new int[] {from, length};
+            }
+            if (!isAttributeList(e, from)) {
+                // As unwrapString(value, ',') does
+                int start = from;
+                int end = length;
+                while (start < end && (e.charAt(start) == ',' || e.charAt(start) <= ' ')) {
+                    start++;
+                }
+                while (end > start && (e.charAt(end - 1) == ',' || e.charAt(end - 1) <= ' ')) {
+                    end--;
+                }
+                return new int[] {start, end};
+            }
+
+            int[] bounds = new int[8];
+            int count = 0;
+            int i = from;
+            while (i < length) {
+                int start = i;
+                boolean quoted = false;
+                while (i < length && (quoted || e.charAt(i) != ',')) {
+                    if (e.charAt(i) == '"') {
+                        quoted = !quoted;
+                    }
+                    i++;
+                }
+                int end = i;
+                while (start < end && e.charAt(start) <= ' ') {
+                    start++;
+                }
+                while (end > start && e.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+                if (start < end) {
+                    if (count + 2 > bounds.length) {
+                        bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                    }
+                    bounds[count++] = start;
+                    bounds[count++] = end;
+                }
+                i++; // skip the comma
+            }
+            return count == bounds.length ? bounds : Arrays.copyOf(bounds, count);
         }
 
         /**
@@ -236,15 +518,170 @@ public class hlsM3u8Parser {
         protected final EntryType type;
 
         /**
-         * @member CSV strings array (values behind the `:`)
+         * @member CSV strings array (values behind the `:`). Null until getValues() is called for lazy entries.
+         */
+        protected ArrayList<String> values;
+
+        /**
+         * @member Source line, only kept for lazy entries
+         */
+        private final String source;
+
+        /**
+         * @member [start, end[ offsets of each value in the source line, only set for lazy entries
+         */
+        private final int[] valueBounds;
+
+        private boolean frozen = false;
+
+        public EntryType getType() {
+            return this.type;
+        }
+
+        boolean isLazy() {
+            return this.valueBounds != null;
+        }
+
+        /**
+         * Computes whatever lazy entries leave for their first access and makes the entry refuse changes from now on,
+         * so it can be shared between threads (see ParsedPlaylist). Malformed values are still left for the getters
+         * to report.
+         */
+        void freeze() {
+            this.getValues();
+            this.frozen = true;
+        }
+
+        boolean isFrozen() {
+            return this.frozen;
+        }
+
+        /**
+         * @return CSV strings array (values behind the `:`), materialized on first call for lazy entries
+         */
+        ArrayList<String> getValues() {
+            if (this.values == null) {
+                ArrayList<String> valuesList = new ArrayList<>(this.valueBounds.length / 2);
+                for (int i = 0; i < this.valueBounds.length; i += 2) {
+                    valuesList.add(this.source.substring(this.valueBounds[i], this.valueBounds[i + 1]));
+                }
+                this.values = valuesList;
+            }
+            return this.values;
+        }
+
+        int valuesCount() {
+            return this.values != null ? this.values.size() : this.valueBounds.length / 2;
+        }
+
+        /**
+         * @return Whether the value holds that char, without materializing it for lazy entries
+         */
+        boolean valueContains(int index, char c) {
+            if (this.values != null) {
+                return this.values.get(index).indexOf(c) >= 0;
+            }
+            int i = this.source.indexOf(c, this.valueBounds[2 * index]);
+            return i >= 0 && i < this.valueBounds[2 * index + 1];
+        }
+
+        /**
+         * Looks up an attribute without decoding the other ones. Only for lazy entries.
+         * @return Index in valueBounds of the attribute (KEY=VALUE), or -1 if it's not there
+         */
+        private int findAttribute(String key) {
+            for (int i = 0; i < this.valueBounds.length; i += 2) {
+                int start = this.valueBounds[i];
+                int end = this.valueBounds[i + 1];
+                if (start + key.length() < end && this.source.startsWith(key, start)
+                        && this.source.charAt(start + key.length()) == '=') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Lazy entries only.
+         * @return The raw value of the attribute (quotes not removed), or null if it's not there
+         */
+        String readAttributeValue(AttributeType attributeType) {
+            int i = this.findAttribute(attributeType.attribute);
+            if (i < 0) {
+                return null;
+            }
+            int start = this.valueBounds[i] + attributeType.attribute.length() + 1;
+            return this.source.substring(start, this.valueBounds[i + 1]).trim();
+        }
+
+        /**
+         * Lazy entries only. Parses the digits in place, so we don't need to create a string.
+         * @return The unsigned integer value of the attribute, or defaultValue if it's not there
+         */
+        int readUnsignedIntAttribute(AttributeType attributeType, int defaultValue) {
+            int i = this.findAttribute(attributeType.attribute);
+            if (i < 0) {
+                return defaultValue;
+            }
+            int start = this.valueBounds[i] + attributeType.attribute.length() + 1;
+            int end = this.valueBounds[i + 1];
+            long value = 0;
+            for (int j = start; j < end; j++) {
+                char c = this.source.charAt(j);
+                if (c < '0' || c > '9' || value > 0xFFFFFFFFL) {
+                    // Let the JDK produce the usual error (or deal with the whitespaces)
+                    return Integer.parseUnsignedInt(this.source.substring(start, end).trim(), 10);
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (start == end || value > 0xFFFFFFFFL) {
+                return Integer.parseUnsignedInt(this.source.substring(start, end), 10);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads one attribute of any tag, e.g getAttributeValue("URI") of an EXT-X-MAP.
+         * Lazy entries don't decode their other values for that.
+         * @param name Name of the attribute as written, e.g KEYFORMAT
+         * @return The value without the quotes of a quoted-string, or null if the entry has no such attribute
+         */
+        public String getAttributeValue(String name) {
+            if (this.values == null) {
+                int i = this.findAttribute(name);
+                if (i < 0) {
+                    return null;
+                }
+                return unwrapString(this.source.substring(this.valueBounds[i] + name.length() + 1, this.valueBounds[i + 1]), '"');
+            }
+            for (String value : this.values) {
+                if (value.length() > name.length() && value.startsWith(name) && value.charAt(name.length()) == '=') {
+                    return unwrapString(value.substring(name.length() + 1), '"');
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return The first value (behind the `:`) as written, e.g the date of an EXT-X-PROGRAM-DATE-TIME, or null
          */
-        protected final ArrayList<String> values;
+        public String getValue() {
+            return this.valuesCount() == 0 ? null : this.getValues().get(0);
+        }
 
         /**
          *
          * @return Attributes array created from current CSV strings array (values)
          */
         Attribute[] readAttributes() {
+            return this.readAttributes(false);
+        }
+
+        /**
+         * @param lenient When set, unknown attributes come with a null type instead of failing
+         */
+        Attribute[] readAttributes(boolean lenient) {
+            ArrayList<String> values = this.getValues();
             if (values.size() <= 1) {
                 // better to return an empty array, no need to handle special cases for consumers
                 return new Attribute[0];
@@ -252,7 +689,7 @@ public class hlsM3u8Parser {
             // Q: Could be a one-liner with some functional style map method?
             Attribute[] attributes = new Attribute[values.size()];
             for (int i = 0; i < attributes.length; i++) {
-                Attribute a = new Attribute(values.get(i));
+                Attribute a = new Attribute(values.get(i), lenient);
                 attributes[i] = a;
                 //log.info("Parsed attribute: " + a.toString());
             }
@@ -263,155 +700,900 @@ public class hlsM3u8Parser {
 
         }
 
-        @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append('#');
-            sb.append(this.type.token);
-            if (this.values.size() > 0) {
-                sb.append(':');
+        /**
+         * Serializes this entry (without trailing line-break)
+         */
+        void appendTo(Utf8Buffer out) {
+            out.append('#').append(this.type.token);
+            int count = this.valuesCount();
+            if (count > 0) {
+                out.append(':');
             }
-            for (String value : this.values) {
-                sb.append(value);
-                sb.append(',');
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                this.appendValue(out, i);
             }
-            //sb.append('\n');
-            return sb.toString();
         }
-    }
 
+        /**
+         * Writes a value as is, for lazy entries straight from the source line
+         */
+        void appendValue(Utf8Buffer out, int index) {
+            if (this.values != null) {
+                out.append(this.values.get(index));
+            } else {
+                out.append(this.source, this.valueBounds[2 * index], this.valueBounds[2 * index + 1]);
+            }
+        }
 
-    public static class GroupInfoEntry extends Entry {
-        GroupInfoEntry(String e) {
-            super(e);
+        /**
+         * Serializes this entry with its URI attribute rewritten, if it has one (EXT-X-KEY, EXT-X-MAP, EXT-X-MEDIA,
+         * EXT-X-I-FRAME-STREAM-INF...). The other values are written as is.
+         * @param rewriter Null to write the entry as is
+         */
+        void appendTo(Utf8Buffer out, UrlRewriter rewriter, UrlRewriter.TokenWriter tokens) {
+            int uriIndex = rewriter == null ? -1 : this.uriValueIndex();
+            if (uriIndex < 0) {
+                this.appendTo(out);
+                return;
+            }
+            out.append('#').append(this.type.token).append(':');
+            int count = this.valuesCount();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                if (i == uriIndex) {
+                    out.append(AttributeType.URI.attribute).append("=\"");
+                    rewriter.rewrite(this.getAttributeValue(AttributeType.URI.attribute), tokens, out);
+                    out.append('"');
+                } else {
+                    this.appendValue(out, i);
+                }
+            }
+        }
 
-            Attribute[] attributes = this.readAttributes();
-            for (Attribute a: attributes) {
-                switch (a.type) {
-                    case GROUP_ID:
-                        this.groupId = a.getValue();
-                        break;
-                    case NAME:
-                        this.name = a.getValue();
-                        break;
-                    case LANGUAGE:
-                        this.language = a.getValue();
-                        break;
-                    case URI:
-                        // Q: Do we need to sign this URL too? And should we make this member
-                        //    a URL object i.e make this class a URLEntry in this case (since we'd need some context to resolve it)
-                        this.uri = a.getValue();
-                        break;
-                    case TYPE:
-                        this.groupType = GroupType.fromString(a.value);
-                        break;
-                    default:
-                        // Maybe we should not throw here as in principle there can be all sorts of attributes
-                        // we may not need but we should at least log an error if that occurs...
-                        throw new RuntimeException("Unknown attribute type: " + a.type);
+        /**
+         * @return Index in the values of the URI attribute, -1 if the entry has none
+         */
+        private int uriValueIndex() {
+            String name = AttributeType.URI.attribute;
+            if (this.values == null) {
+                int i = this.findAttribute(name);
+                return i < 0 ? -1 : i / 2;
+            }
+            for (int i = 0; i < this.values.size(); i++) {
+                String value = this.values.get(i);
+                if (value.length() > name.length() && value.startsWith(name) && value.charAt(name.length()) == '=') {
+                    return i;
                 }
             }
+            return -1;
         }
 
         @Override
         public String toString() {
-            throw new RuntimeException("not implemented");
+            Utf8Buffer out = new Utf8Buffer(64);
+            this.appendTo(out);
+            return out.toString();
         }
-
-        private String groupId = null;
-        private String name = null;
-        private String language = null;
-        private String uri = null;
-        private GroupType groupType = null;
     }
 
-    public static enum GroupType {
-        AUDIO, VIDEO, SUBTITLES;
 
-        static GroupType fromString(String s) {
-            /*
-            switch(s) {
-                case "AUDIO": return AUDIO;
-                case "VIDEO": return VIDEO;
-                case "SUBTITLES": return SUBTITLES;
-                default: throw new RuntimeException("Invalid group type value: " + s);
-            }
-            */
-            return GroupType.valueOf(s.trim());
+    /**
+     * Lines we don't model, kept as they were written (lenient mode only): unknown tags, lines which failed to parse,
+     * and the URI following such a line if it had one. Serialized back as is.
+     */
+    public static class PassthroughEntry extends Entry {
+        PassthroughEntry(String line) {
+            super(EntryType.UNKNOWN);
+            this.text = line;
         }
-    }
-
-    public static class URLEntry extends Entry {
-        URLEntry(String e, URL url) {
-            super(e);
 
-            this.url = url;
+        void addLine(String line) {
+            this.text = this.text + '\n' + line;
         }
 
-        // Note: This will be absolute. Important to relativize this back (via URI class) against the context of this file
-        //       when we serialize
-        protected URL url;
-
-        void setUrl(URL url) {
-            this.url = url;
+        /**
+         * @return The line(s) as written, separated by line-breaks (without trailing one)
+         */
+        public String getText() {
+            return this.text;
         }
 
-        URL getUrl() {
-            return this.url;
-        }
-        /*
-        Attribute[] readAttributes() {
-            return new Attribute[0];
+        @Override
+        void appendTo(Utf8Buffer out) {
+            out.append(this.text);
         }
-        */
 
-        /*
         @Override
-        public String toString() {
-            throw new RuntimeException("not implemented");
+        void appendTo(Utf8Buffer out, UrlRewriter rewriter, UrlRewriter.TokenWriter tokens) {
+            // Written back as is, we don't know what's in there
+            this.appendTo(out);
         }
-        */
+
+        private String text;
     }
 
+    /**
+     * EXT-X-KEY of a media playlist, or EXT-X-SESSION-KEY of a master playlist
+     */
+    public static class KeyEntry extends Entry {
+        KeyEntry(String e, EntryType type, boolean lazy) {
+            super(e, type, lazy);
+        }
 
-    public static class StreamInfoEntry extends URLEntry {
-        StreamInfoEntry(String e, URL url) {
-            super(e, url);
+        /**
+         * @return E.g NONE, AES-128 or SAMPLE-AES
+         */
+        public String getMethod() {
+            return this.getAttributeValue(AttributeType.METHOD.attribute);
+        }
 
-            Attribute[] attributes = this.readAttributes();
-            for (Attribute a: attributes) {
-                switch (a.type) {
-                    case PROGRAM_ID:
-                        this.programId = Integer.parseUnsignedInt(a.value, 10);
-                        break;
-                    case BANDWIDTH:
-                        this.bandwidth = Integer.parseUnsignedInt(a.value, 10);
-                        break;
-                    case CODECS:
-                        this.codecs = a.getValue();
-                        this.codecsList = Codec.listFromString(this.codecs);
-                        break;
-                    case RESOLUTION:
-                        this.resolution = Resolution.fromString(a.value);
+        /**
+         * @return False for METHOD=NONE, i.e the segments which follow are not encrypted
+         */
+        public boolean isEncrypted() {
+            String method = this.getMethod();
+            return method != null && !method.equals("NONE");
+        }
+
+        /**
+         * @return URI of the key as written (may be relative)
+         */
+        public String getUri() {
+            return this.getAttributeValue(AttributeType.URI.attribute);
+        }
+
+        /**
+         * @return Initialization vector as written (hexadecimal, 0x...), or null
+         */
+        public String getIv() {
+            return this.getAttributeValue(AttributeType.IV.attribute);
+        }
+
+        public String getKeyFormat() {
+            return this.getAttributeValue(AttributeType.KEYFORMAT.attribute);
+        }
+
+        public String getKeyFormatVersions() {
+            return this.getAttributeValue(AttributeType.KEYFORMATVERSIONS.attribute);
+        }
+    }
+
+    /**
+     * EXT-X-I-FRAME-STREAM-INF: a variant made of I-frames only (for trick play). Unlike EXT-X-STREAM-INF,
+     * its URI is an attribute and not the next line.
+     */
+    public static class IFrameStreamInfoEntry extends Entry {
+        IFrameStreamInfoEntry(String e, EntryType type, boolean lazy) {
+            super(e, type, lazy);
+        }
+
+        public int getBandwidth() {
+            String bandwidth = this.getAttributeValue(AttributeType.BANDWIDTH.attribute);
+            return bandwidth == null ? 0 : Integer.parseUnsignedInt(bandwidth, 10);
+        }
+
+        public String getCodecs() {
+            return this.getAttributeValue(AttributeType.CODECS.attribute);
+        }
+
+        public Resolution getResolution() {
+            String resolution = this.getAttributeValue(AttributeType.RESOLUTION.attribute);
+            return resolution == null ? null : HlsValuePool.get().resolution(resolution);
+        }
+
+        public String getVideoGroupId() {
+            return this.getAttributeValue(AttributeType.VIDEO.attribute);
+        }
+
+        /**
+         * @return URI of the I-frame playlist as written (may be relative)
+         */
+        public String getUri() {
+            return this.getAttributeValue(AttributeType.URI.attribute);
+        }
+    }
+
+    /**
+     * Values of EXT-X-PLAYLIST-TYPE
+     */
+    public enum PlaylistType {
+        EVENT, VOD
+    }
+
+    public static class GroupInfoEntry extends Entry {
+        GroupInfoEntry(String e) {
+            this(e, Entry.typeOf(e));
+        }
+
+        GroupInfoEntry(String e, EntryType type) {
+            this(e, type, false);
+        }
+
+        GroupInfoEntry(String e, EntryType type, boolean lazy) {
+            this(e, type, lazy, false);
+        }
+
+        /**
+         * @param lazy When set, attributes are only decoded once a getter is called
+         * @param lenient When set, unknown attributes and group types are kept (see getUnknownAttributes) instead of rejected
+         */
+        GroupInfoEntry(String e, EntryType type, boolean lazy, boolean lenient) {
+            super(e, type, lazy);
+
+            this.lenient = lenient;
+            if (!lazy) {
+                this.decodeAttributes();
+            }
+        }
+
+        /**
+         * Decodes into locals and only publishes them once all the attributes went through, so a malformed one leaves
+         * the entry as it was (every getter then throws the same error) rather than half decoded.
+         */
+        private synchronized void decodeAttributes() {
+            if (this.decoded) {
+                return;
+            }
+
+            // Note: The values repeating across renditions and playlists are pooled, see HlsValuePool
+            HlsValuePool pool = HlsValuePool.get();
+            ArrayList<Attribute> unknownAttributes = null;
+            String groupId = null;
+            String name = null;
+            String language = null;
+            String uri = null;
+            GroupType groupType = null;
+            String assocLanguage = null;
+            boolean isDefault = false;
+            boolean autoSelect = false;
+            boolean forced = false;
+            String instreamId = null;
+            String characteristics = null;
+            String channels = null;
+            Attribute[] attributes = this.readAttributes(this.lenient);
+            for (Attribute a: attributes) {
+                if (a.type == null) {
+                    unknownAttributes = keepUnknown(unknownAttributes, a);
+                    continue;
+                }
+                switch (a.type) {
+                    case GROUP_ID:
+                        groupId = pool.intern(a.getValue());
+                        break;
+                    case NAME:
+                        name = pool.intern(a.getValue());
+                        break;
+                    case LANGUAGE:
+                        language = pool.intern(a.getValue());
+                        break;
+                    case URI:
+                        // Q: Do we need to sign this URL too? And should we make this member
+                        //    a URL object i.e make this class a URLEntry in this case (since we'd need some context to resolve it)
+                        uri = a.getValue();
+                        break;
+                    case ASSOC_LANGUAGE:
+                        assocLanguage = pool.intern(a.getValue());
+                        break;
+                    case DEFAULT:
+                        isDefault = "YES".equals(a.value);
+                        break;
+                    case AUTOSELECT:
+                        autoSelect = "YES".equals(a.value);
+                        break;
+                    case FORCED:
+                        forced = "YES".equals(a.value);
+                        break;
+                    case INSTREAM_ID:
+                        instreamId = pool.intern(a.getValue());
+                        break;
+                    case CHARACTERISTICS:
+                        characteristics = pool.intern(a.getValue());
+                        break;
+                    case CHANNELS:
+                        channels = pool.intern(a.getValue());
+                        break;
+                    case TYPE:
+                        if (this.lenient) {
+                            groupType = GroupType.lookup(a.value);
+                            if (groupType == null) {
+                                unknownAttributes = keepUnknown(unknownAttributes, a);
+                            }
+                        } else {
+                            groupType = GroupType.fromString(a.value);
+                        }
+                        break;
+                    default:
+                        // Known attribute which we don't model for this tag, still kept for whoever needs it
+                        unknownAttributes = keepUnknown(unknownAttributes, a);
+                        break;
+                }
+            }
+
+            this.unknownAttributes = unknownAttributes;
+            this.groupId = groupId;
+            this.name = name;
+            this.language = language;
+            this.uri = uri;
+            this.groupType = groupType;
+            this.assocLanguage = assocLanguage;
+            this.isDefault = isDefault;
+            this.autoSelect = autoSelect;
+            this.forced = forced;
+            this.instreamId = instreamId;
+            this.characteristics = characteristics;
+            this.channels = channels;
+            // Note: Written last, the getters reading it see all of the above (volatile)
+            this.decoded = true;
+        }
+
+        private void ensureDecoded() {
+            if (!this.decoded) {
+                this.decodeAttributes();
+            }
+        }
+
+        @Override
+        void freeze() {
+            super.freeze();
+            try {
+                this.ensureDecoded();
+            } catch (RuntimeException re) {
+                // Malformed attribute, the getters report it
+            }
+        }
+
+        public String getGroupId() {
+            this.ensureDecoded();
+            return this.groupId;
+        }
+
+        public String getName() {
+            this.ensureDecoded();
+            return this.name;
+        }
+
+        public String getLanguage() {
+            this.ensureDecoded();
+            return this.language;
+        }
+
+        public String getUri() {
+            this.ensureDecoded();
+            return this.uri;
+        }
+
+        public GroupType getGroupType() {
+            this.ensureDecoded();
+            return this.groupType;
+        }
+
+        public String getAssocLanguage() {
+            this.ensureDecoded();
+            return this.assocLanguage;
+        }
+
+        /**
+         * @return True for DEFAULT=YES
+         */
+        public boolean isDefault() {
+            this.ensureDecoded();
+            return this.isDefault;
+        }
+
+        /**
+         * @return True for AUTOSELECT=YES
+         */
+        public boolean isAutoSelect() {
+            this.ensureDecoded();
+            return this.autoSelect;
+        }
+
+        /**
+         * @return True for FORCED=YES
+         */
+        public boolean isForced() {
+            this.ensureDecoded();
+            return this.forced;
+        }
+
+        /**
+         * @return E.g CC1, for closed-captions renditions
+         */
+        public String getInstreamId() {
+            this.ensureDecoded();
+            return this.instreamId;
+        }
+
+        public String getCharacteristics() {
+            this.ensureDecoded();
+            return this.characteristics;
+        }
+
+        /**
+         * @return E.g "2" or "16/JOC", as written
+         */
+        public String getChannels() {
+            this.ensureDecoded();
+            return this.channels;
+        }
+
+        /**
+         * @return Attributes this entry doesn't model, in playlist order. Unknown ones only show up in lenient mode
+         * (they fail the parse otherwise).
+         */
+        public List<Attribute> getUnknownAttributes() {
+            this.ensureDecoded();
+            return unknownAttributesView(this.unknownAttributes);
+        }
+
+        private final boolean lenient;
+        private ArrayList<Attribute> unknownAttributes = null;
+        private volatile boolean decoded = false;
+        private String groupId = null;
+        private String name = null;
+        private String language = null;
+        private String uri = null;
+        private GroupType groupType = null;
+        private String assocLanguage = null;
+        private boolean isDefault = false;
+        private boolean autoSelect = false;
+        private boolean forced = false;
+        private String instreamId = null;
+        private String characteristics = null;
+        private String channels = null;
+    }
+
+    public static enum GroupType {
+        AUDIO, VIDEO, SUBTITLES, CLOSED_CAPTIONS;
+
+        static GroupType fromString(String s) {
+            /*
+            switch(s) {
+                case "AUDIO": return AUDIO;
+                case "VIDEO": return VIDEO;
+                case "SUBTITLES": return SUBTITLES;
+                default: throw new RuntimeException("Invalid group type value: " + s);
+            }
+            */
+            return GroupType.valueOf(tokenStringToEnumName(s));
+        }
+
+        /**
+         * @return The type, or null if it's unknown
+         */
+        static GroupType lookup(String s) {
+            String name = tokenStringToEnumName(s);
+            for (GroupType t : values()) {
+                if (t.name().equals(name)) {
+                    return t;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static ArrayList<Attribute> keepUnknown(ArrayList<Attribute> unknownAttributes, Attribute a) {
+        if (unknownAttributes == null) {
+            unknownAttributes = new ArrayList<>(2);
+        }
+        unknownAttributes.add(a);
+        return unknownAttributes;
+    }
+
+    private static List<Attribute> unknownAttributesView(ArrayList<Attribute> unknownAttributes) {
+        return unknownAttributes == null ? Collections.<Attribute>emptyList() : Collections.unmodifiableList(unknownAttributes);
+    }
+
+    public static class URLEntry extends Entry {
+        URLEntry(String e, URL url) {
+            super(e);
+
+            this.url = url;
+        }
+
+        URLEntry(String e, EntryType type, URL url) {
+            this(e, type, url, false);
+        }
+
+        URLEntry(String e, EntryType type, URL url, boolean lazy) {
+            super(e, type, lazy);
+
+            this.url = url;
+        }
+
+        // Note: This will be absolute. Important to relativize this back (via URI class) against the context of this file
+        //       when we serialize
+        protected URL url;
+        // As written in the playlist (may be relative), null once the URL was changed
+        private String uri;
+        // Lazy URL mode: url is resolved against this on first access, and we serialize uri as is
+        private URL context;
+        private boolean lazyUrl = false;
+        // Tags found between the entry and its URI (e.g EXT-X-BYTERANGE), in playlist order. Null if none.
+        private ArrayList<Entry> innerTags = null;
+
+        void addInnerTag(Entry tag) {
+            if (this.innerTags == null) {
+                this.innerTags = new ArrayList<>(2);
+            }
+            this.innerTags.add(tag);
+        }
+
+        /**
+         * @return Tags found between the entry and its URI, in playlist order. They are written back at the same place.
+         */
+        public List<Entry> getInnerTags() {
+            return this.innerTags == null ? Collections.<Entry>emptyList() : Collections.unmodifiableList(this.innerTags);
+        }
+
+        boolean hasInnerTag(EntryType type) {
+            if (this.innerTags != null) {
+                for (Entry tag : this.innerTags) {
+                    if (tag.type == type) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void setUrl(URL url) {
+            this.checkNotFrozen();
+            this.url = url;
+            this.uri = null;
+            this.lazyUrl = false;
+        }
+
+        void setUrl(String uri, URL url) {
+            this.checkNotFrozen();
+            this.url = url;
+            this.uri = uri;
+            this.lazyUrl = false;
+        }
+
+        /**
+         * Lazy URL mode, see hlsM3u8Parser.setLazyUrls(boolean)
+         */
+        void setLazyUrl(String uri, URL context) {
+            this.url = null;
+            this.uri = uri;
+            this.context = context;
+            this.lazyUrl = true;
+        }
+
+        private void checkNotFrozen() {
+            if (this.isFrozen()) {
+                throw new RuntimeException("Entry is shared by a ParsedPlaylist and can't be changed anymore, "
+                        + "rewrite its URL when serializing instead (see UrlRewriter): " + this.getUri());
+            }
+        }
+
+        @Override
+        void freeze() {
+            super.freeze();
+            if (this.innerTags != null) {
+                for (Entry tag : this.innerTags) {
+                    tag.freeze();
+                }
+            }
+            try {
+                this.getUrl();
+            } catch (RuntimeException re) {
+                // Malformed URI, getUrl() reports it
+            }
+        }
+
+        /**
+         * @return Absolute URL. In lazy URL mode, resolved (once) on the first call, which throws if it's malformed.
+         */
+        public URL getUrl() {
+            if (this.url == null && this.lazyUrl) {
+                this.url = resolveUrl(this.context, this.uri);
+            }
+            return this.url;
+        }
+
+        /**
+         * @return The URI as written in the playlist (so possibly relative), or the URL if it was changed since
+         */
+        public String getUri() {
+            if (this.uri == null && this.url != null) {
+                return this.url.toString();
+            }
+            return this.uri;
+        }
+
+        @Override
+        void appendTo(Utf8Buffer out) {
+            this.appendTo(out, null, null);
+        }
+
+        /**
+         * @param rewriter When set, the URI (as written in the playlist) gets rewritten, along with the URI attributes
+         *                 of the inner tags (e.g EXT-X-KEY). Otherwise we write the URL.
+         */
+        @Override
+        void appendTo(Utf8Buffer out, UrlRewriter rewriter, UrlRewriter.TokenWriter tokens) {
+            this.appendTags(out);
+            if (this.innerTags != null) {
+                for (Entry tag : this.innerTags) {
+                    out.append('\n');
+                    this.appendInnerTag(out, tag, rewriter, tokens);
+                }
+            }
+            if (this.url != null || this.lazyUrl) {
+                out.append('\n');
+                if (rewriter != null) {
+                    rewriter.rewrite(this.getUri(), tokens, out);
+                } else if (this.lazyUrl) {
+                    out.append(this.uri);
+                } else {
+                    out.append(this.url.toString());
+                }
+            }
+        }
+
+        /**
+         * Serializes the tag line(s) preceding the URL (without trailing line-break)
+         */
+        void appendTags(Utf8Buffer out) {
+            super.appendTo(out);
+        }
+
+        /**
+         * Serializes one of the inner tags (without trailing line-break)
+         */
+        void appendInnerTag(Utf8Buffer out, Entry tag, UrlRewriter rewriter, UrlRewriter.TokenWriter tokens) {
+            tag.appendTo(out, rewriter, tokens);
+        }
+        /*
+        Attribute[] readAttributes() {
+            return new Attribute[0];
+        }
+        */
+
+        /*
+        @Override
+        public String toString() {
+            throw new RuntimeException("not implemented");
+        }
+        */
+    }
+
+
+    public static class StreamInfoEntry extends URLEntry {
+        StreamInfoEntry(String e, URL url) {
+            this(e, Entry.typeOf(e), url);
+        }
+
+        StreamInfoEntry(String e, EntryType type, URL url) {
+            this(e, type, url, false);
+        }
+
+        StreamInfoEntry(String e, EntryType type, URL url, boolean lazy) {
+            this(e, type, url, lazy, false);
+        }
+
+        /**
+         * @param lazy When set, attributes are only decoded once a getter is called.
+         *             The bandwidth and program id can be read without decoding anything else.
+         * @param lenient When set, unknown attributes are kept (see getUnknownAttributes) instead of rejected
+         */
+        StreamInfoEntry(String e, EntryType type, URL url, boolean lazy, boolean lenient) {
+            super(e, type, url, lazy);
+
+            this.lenient = lenient;
+            if (!lazy) {
+                this.decodeAttributes();
+            }
+        }
+
+        /**
+         * Decodes into locals and only publishes them once all the attributes went through, so a malformed one leaves
+         * the entry as it was (every getter then throws the same error) rather than half decoded.
+         */
+        private synchronized void decodeAttributes() {
+            if (this.decoded) {
+                return;
+            }
+
+            // Note: The values repeating across variants and playlists are pooled, see HlsValuePool
+            HlsValuePool pool = HlsValuePool.get();
+            ArrayList<Attribute> unknownAttributes = null;
+            int programId = 0;
+            int bandwidth = 0;
+            String codecs = null;
+            List<Codec> codecsList = null;
+            Resolution resolution = null;
+            String audioGroupId = null;
+            String videoGroupId = null;
+            String subtitlesGroupId = null;
+            String closedCaptionsGroupId = null;
+            String name = null;
+            int averageBandwidth = 0;
+            float frameRate = 0;
+            String hdcpLevel = null;
+            Attribute[] attributes = this.readAttributes(this.lenient);
+            for (Attribute a: attributes) {
+                if (a.type == null) {
+                    unknownAttributes = keepUnknown(unknownAttributes, a);
+                    continue;
+                }
+                switch (a.type) {
+                    case PROGRAM_ID:
+                        programId = Integer.parseUnsignedInt(a.value, 10);
+                        break;
+                    case BANDWIDTH:
+                        bandwidth = Integer.parseUnsignedInt(a.value, 10);
+                        break;
+                    case CODECS:
+                        codecs = pool.intern(a.getValue());
+                        codecsList = pool.codecs(codecs);
+                        break;
+                    case RESOLUTION:
+                        resolution = pool.resolution(a.value);
                         break;
                     case AUDIO:
-                        this.audioGroupId = a.getValue();
+                        audioGroupId = pool.intern(a.getValue());
                         break;
                     case VIDEO:
-                        this.videoGroupId = a.getValue();
+                        videoGroupId = pool.intern(a.getValue());
                         break;
-                    case SUBTILES:
-                        this.subtitlesGroupId = a.getValue();
+                    case SUBTITLES:
+                        subtitlesGroupId = pool.intern(a.getValue());
                         break;
                     case NAME:
-                        this.name = a.getValue();
+                        name = pool.intern(a.getValue());
+                        break;
+                    case AVERAGE_BANDWIDTH:
+                        averageBandwidth = Integer.parseUnsignedInt(a.value, 10);
+                        break;
+                    case FRAME_RATE:
+                        frameRate = Float.parseFloat(a.value);
+                        break;
+                    case HDCP_LEVEL:
+                        hdcpLevel = pool.intern(a.value);
+                        break;
+                    case CLOSED_CAPTIONS:
+                        closedCaptionsGroupId = pool.intern(a.getValue());
                         break;
                     default:
-                        // Maybe we should not throw here as in principle there can be all sorts of attributes
-                        // we may not need but we should at least log an error if that occurs...
-                        throw new RuntimeException("Unknown attribute type: " + a.type);
+                        // Known attribute which we don't model for this tag, still kept for whoever needs it
+                        unknownAttributes = keepUnknown(unknownAttributes, a);
+                        break;
                 }
             }
+
+            this.unknownAttributes = unknownAttributes;
+            this.programId = programId;
+            this.bandwidth = bandwidth;
+            this.codecs = codecs;
+            this.codecsList = codecsList;
+            this.resolution = resolution;
+            this.audioGroupId = audioGroupId;
+            this.videoGroupId = videoGroupId;
+            this.subtitlesGroupId = subtitlesGroupId;
+            this.closedCaptionsGroupId = closedCaptionsGroupId;
+            this.name = name;
+            this.averageBandwidth = averageBandwidth;
+            this.frameRate = frameRate;
+            this.hdcpLevel = hdcpLevel;
+            // Note: Written last, the getters reading it see all of the above (volatile)
+            this.decoded = true;
+        }
+
+        private void ensureDecoded() {
+            if (!this.decoded) {
+                this.decodeAttributes();
+            }
+        }
+
+        @Override
+        void freeze() {
+            super.freeze();
+            try {
+                this.ensureDecoded();
+            } catch (RuntimeException re) {
+                // Malformed attribute, the getters report it
+            }
+        }
+
+        public int getProgramId() {
+            if (!this.decoded) {
+                return this.readUnsignedIntAttribute(AttributeType.PROGRAM_ID, 0);
+            }
+            return this.programId;
+        }
+
+        public int getBandwidth() {
+            if (!this.decoded) {
+                return this.readUnsignedIntAttribute(AttributeType.BANDWIDTH, 0);
+            }
+            return this.bandwidth;
+        }
+
+        public String getCodecs() {
+            this.ensureDecoded();
+            return this.codecs;
+        }
+
+        /**
+         * @return Unmodifiable, and shared with the variants having the same CODECS (see HlsValuePool)
+         */
+        public List<Codec> getCodecsList() {
+            this.ensureDecoded();
+            return this.codecsList;
+        }
+
+        public Resolution getResolution() {
+            this.ensureDecoded();
+            return this.resolution;
+        }
+
+        public String getName() {
+            this.ensureDecoded();
+            return this.name;
+        }
+
+        public String getAudioGroupId() {
+            this.ensureDecoded();
+            return this.audioGroupId;
+        }
+
+        public String getVideoGroupId() {
+            this.ensureDecoded();
+            return this.videoGroupId;
+        }
+
+        public String getSubtitlesGroupId() {
+            this.ensureDecoded();
+            return this.subtitlesGroupId;
+        }
+
+        /**
+         * @return AVERAGE-BANDWIDTH, 0 if the playlist doesn't tell
+         */
+        public int getAverageBandwidth() {
+            this.ensureDecoded();
+            return this.averageBandwidth;
+        }
+
+        /**
+         * @return FRAME-RATE, 0 if the playlist doesn't tell
+         */
+        public float getFrameRate() {
+            this.ensureDecoded();
+            return this.frameRate;
+        }
+
+        /**
+         * @return HDCP-LEVEL, e.g TYPE-0 or NONE
+         */
+        public String getHdcpLevel() {
+            this.ensureDecoded();
+            return this.hdcpLevel;
+        }
+
+        /**
+         * @return CLOSED-CAPTIONS, i.e the group id of the closed-captions renditions or NONE
+         */
+        public String getClosedCaptionsGroupId() {
+            this.ensureDecoded();
+            return this.closedCaptionsGroupId;
+        }
+
+        /**
+         * @return Attributes this entry doesn't model, in playlist order. Unknown ones only show up in lenient mode
+         * (they fail the parse otherwise).
+         */
+        public List<Attribute> getUnknownAttributes() {
+            this.ensureDecoded();
+            return unknownAttributesView(this.unknownAttributes);
         }
 
         /*
@@ -421,91 +1603,273 @@ public class hlsM3u8Parser {
             // entry should end with a line-break char
             return entry + '\n' + this.url.toString();
         }
-        */
+        */
+
+        private final boolean lenient;
+        private ArrayList<Attribute> unknownAttributes = null;
+        private volatile boolean decoded = false;
+        private int programId = 0;
+        private int bandwidth = 0;
+        private String codecs = null;
+        private String name = null;
+        private String audioGroupId = null;
+        private String videoGroupId = null;
+        private String subtitlesGroupId = null;
+        private String closedCaptionsGroupId = null;
+        private int averageBandwidth = 0;
+        private float frameRate = 0;
+        private String hdcpLevel = null;
+        private Resolution resolution = null;
+        private List<Codec> codecsList = null;
+    }
+
+
+    public static class MediaInfoEntry extends URLEntry {
+        MediaInfoEntry(String e, URL url) {
+            this(e, Entry.typeOf(e), url);
+        }
+
+        MediaInfoEntry(String e, EntryType type, URL url) {
+            this(e, type, url, false);
+        }
+
+        /**
+         * @param lazy When set, the duration is only parsed once getDuration() is called
+         */
+        MediaInfoEntry(String e, EntryType type, URL url, boolean lazy) {
+            super(e, type, url, lazy);
+
+            // Note: A title behind the duration is part of the same value, see parseDuration
+            if (this.valuesCount() < 1) {
+                throw new RuntimeException("Entry should have a duration value");
+            }
+
+            if (!lazy) {
+                this.duration = parseDuration(this.values.get(0));
+            }
+        }
+
+        /**
+         * @param value Duration, possibly followed by a comma and the title
+         */
+        private static float parseDuration(String value) {
+            int comma = value.indexOf(',');
+            return Float.parseFloat(comma < 0 ? value : value.substring(0, comma));
+        }
+
+        public float getDuration() {
+            if (this.duration == MEDIA_DURATION_NONE && this.isLazy()) {
+                this.duration = parseDuration(this.getValues().get(0));
+            }
+            return this.duration;
+        }
+
+        @Override
+        void freeze() {
+            super.freeze();
+            // Note: Usually in the entries already, but not when the segment they came with was filtered out
+            if (this.key != null) {
+                this.key.freeze();
+            }
+            if (this.map != null) {
+                this.map.freeze();
+            }
+            try {
+                this.getDuration();
+            } catch (RuntimeException re) {
+                // Malformed duration, getDuration() reports it
+            }
+        }
+
+        public long getByteRangeStart() {
+            return this.byteRangeStart;
+        }
+
+        /**
+         * @return Last byte index of the range (inclusive), or -1 if the entry has no byte-range
+         */
+        public long getByteRangeEnd() {
+            return this.byteRangeEnd;
+        }
+
+        /**
+         * @return True if the segment is a sub-range of its resource (EXT-X-BYTERANGE)
+         */
+        public boolean hasByteRange() {
+            return this.byteRangeEnd >= this.byteRangeStart;
+        }
+
+        /**
+         * @return Sequence number of this segment (see EXT-X-MEDIA-SEQUENCE)
+         */
+        public long getSequence() {
+            return this.sequence;
+        }
+
+        void setSequence(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return The EXT-X-KEY in effect for this segment, null if it's not encrypted
+         */
+        public KeyEntry getKey() {
+            return this.key;
+        }
 
-        private int programId = 0;
-        private int bandwidth = 0;
-        private String codecs = null;
-        private String name = null;
-        private String audioGroupId = null;
-        private String videoGroupId = null;
-        private String subtitlesGroupId = null;
-        private Resolution resolution = null;
-        private ArrayList<Codec> codecsList = null;
-    }
+        /**
+         * @return The EXT-X-MAP in effect for this segment (see getAttributeValue("URI")), or null
+         */
+        public Entry getMap() {
+            return this.map;
+        }
 
+        /**
+         * @return The EXT-X-PROGRAM-DATE-TIME of this segment as written (ISO 8601), or null
+         */
+        public String getProgramDateTime() {
+            return this.programDateTime;
+        }
 
-    public static class MediaInfoEntry extends URLEntry {
-        MediaInfoEntry(String e, URL url) {
-            super(e, url);
+        /**
+         * @return True if there is an EXT-X-DISCONTINUITY before this segment
+         */
+        public boolean isDiscontinuity() {
+            return this.discontinuity;
+        }
 
-            if (this.values.size() != 1) {
-                throw new RuntimeException("Entry should have exactly one value");
-            }
+        void setSegmentTags(KeyEntry key, Entry map, String programDateTime, boolean discontinuity) {
+            this.key = key;
+            this.map = map;
+            this.programDateTime = programDateTime;
+            this.discontinuity = discontinuity;
+        }
 
-            String floatNumber = this.values.get(0);
-            this.duration = Float.parseFloat(floatNumber);
+        long addByteRange(Entry e, long offset) {
+            return readByteRange(e, offset, this);
         }
 
-        int addByteRange(Entry e, int offset) {
-            if (e.values.size() != 1) {
+        /**
+         * @param offset Where the range starts if it doesn't tell, i.e right after the previous one
+         * @param target Entry to set the range on, or null when we only need to keep track of the offset
+         *               (i.e for segments we skip)
+         * @return Offset of the byte following the range, where the next one starts unless it tells otherwise
+         */
+        static long readByteRange(Entry e, long offset, MediaInfoEntry target) {
+            if (e.valuesCount() != 1) {
                 throw new RuntimeException("Entry should only have one value");
             }
 
-            String byteRange = e.values.get(0);
+            String byteRange = e.getValues().get(0);
             String[] byteRangeParsed = byteRange.split("@");
 
             if(byteRangeParsed.length > 1) {
-                // TODO check spec if we need to accumulate or replace here (what is assumed is the latter)
-                offset = Integer.parseUnsignedInt(byteRangeParsed[1]);
+                // Note: The spec says the offset is absolute, it replaces the implicit one
+                offset = parseByteCount(byteRangeParsed[1], byteRange);
             }
 
-            this.byteRangeStart = offset;
             // we need to add this to the offset, then subtract one because
             // this number is meant to be the "end" of the range, so the last byte index inclusively
             // whereas the number we parse here is an amount of bytes in the range, and
             // the offset is also inclusive.
-            this.byteRangeEnd = offset + Integer.parseUnsignedInt(byteRangeParsed[0]) - 1;
+            long next = offset + parseByteCount(byteRangeParsed[0], byteRange);
+            if (next < 0) {
+                throw new RuntimeException("Byte-range out of bounds: " + byteRange);
+            }
 
-            return this.byteRangeEnd;
+            if (target != null) {
+                target.byteRangeStart = offset;
+                target.byteRangeEnd = next - 1;
+            }
+
+            return next;
+        }
+
+        private static long parseByteCount(String value, String byteRange) {
+            // Note: The spec allows up to 2^64-1, we stop at 2^63-1 which is still plenty
+            long count = Long.parseUnsignedLong(value);
+            if (count < 0) {
+                throw new RuntimeException("Byte-range out of bounds: " + byteRange);
+            }
+            return count;
         }
 
         @Override
-        public String toString() {
-            String entry = "";
-            String temp = EntryType.EXTINF + ":" + duration;
-            entry += temp + "\n";
-            if (this.byteRangeStart < this.byteRangeEnd) {
-                // TODO optimization for serialization output size
-                // we could use the "compressed" way to pass on only byte-range lengths
-                // based on the previous offset as an assumed start but for this we would
-                // need the previous entry context here.
-                temp = EntryType.EXT_X_BYTERANGE + ":" + (this.byteRangeEnd - this.byteRangeStart + 1) + "@" + this.byteRangeStart + "\n";
-                entry += temp + "\n";
+        void appendTags(Utf8Buffer out) {
+            // Note: We write the duration (and title) as we read it, the spec wants the comma even when there is no title
+            out.append('#').append(EntryType.EXTINF.token).append(':');
+            int count = this.valuesCount();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                this.appendValue(out, i);
+            }
+            if (count == 1 && !this.valueContains(0, ',')) {
+                out.append(',');
+            }
+            // Note: When it came in between, the byte-range is written where it was, see appendInnerTag
+            if (this.hasByteRange() && !this.hasInnerTag(EntryType.EXT_X_BYTERANGE)) {
+                out.append('\n');
+                this.appendByteRange(out);
             }
+        }
 
-            // entry should end with a line-break char
-            return entry + this.url.toString();
+        @Override
+        void appendInnerTag(Utf8Buffer out, Entry tag, UrlRewriter rewriter, UrlRewriter.TokenWriter tokens) {
+            if (tag.type == EntryType.EXT_X_BYTERANGE && this.hasByteRange()) {
+                this.appendByteRange(out);
+            } else {
+                super.appendInnerTag(out, tag, rewriter, tokens);
+            }
+        }
+
+        private void appendByteRange(Utf8Buffer out) {
+            // TODO optimization for serialization output size
+            // we could use the "compressed" way to pass on only byte-range lengths
+            // based on the previous offset as an assumed start but for this we would
+            // need the previous entry context here.
+            out.append('#').append(EntryType.EXT_X_BYTERANGE.token).append(':')
+                    .append(this.byteRangeEnd - this.byteRangeStart + 1).append('@').append(this.byteRangeStart);
         }
 
+        private KeyEntry key = null;
+        private Entry map = null;
+        private String programDateTime = null;
+        private boolean discontinuity = false;
         private float duration = MEDIA_DURATION_NONE;
-        private int byteRangeStart = 0;
-        private int byteRangeEnd = -1;
+        private long sequence = -1;
+        private long byteRangeStart = 0;
+        private long byteRangeEnd = -1;
     }
 
     public static class Resolution {
 
+        /**
+         * Note: Goes through HlsValuePool.get().resolution(String) when parsing, so that equal resolutions are shared
+         */
         static Resolution fromString(String res) {
-            String[] parsedRes = res.split(RESOLUTION_SPLIT_CHAR);
-            if (!(parsedRes.length == 2 && parsedRes[0].matches(INTEGER_REGEX) && parsedRes[1].matches(INTEGER_REGEX))) {
+            // Digits, 'x', digits. Scanned by hand rather than split and matched against INTEGER_REGEX
+            int split = res.indexOf(RESOLUTION_SPLIT_CHAR);
+            if (split <= 0 || split == res.length() - 1 || !isDigits(res, 0, split) || !isDigits(res, split + 1, res.length())) {
                 throw new RuntimeException("Malformed resolution: " + res);
             }
             return new Resolution(
-                    Integer.parseUnsignedInt(parsedRes[0]),
-                    Integer.parseUnsignedInt(parsedRes[1])
+                    Integer.parseUnsignedInt(res.substring(0, split)),
+                    Integer.parseUnsignedInt(res.substring(split + 1))
             );
         }
 
+        private static boolean isDigits(String s, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         private final int width;
         private final int height;
 
@@ -514,6 +1878,28 @@ public class hlsM3u8Parser {
             this.height = height;
         }
 
+        public int getWidth() {
+            return this.width;
+        }
+
+        public int getHeight() {
+            return this.height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Resolution)) {
+                return false;
+            }
+            Resolution other = (Resolution) o;
+            return this.width == other.width && this.height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.width + this.height;
+        }
+
         @Override
         public String toString() {
             return width + RESOLUTION_SPLIT_CHAR + height;
@@ -584,93 +1970,508 @@ public class hlsM3u8Parser {
 
     public static class Codec {
 
-        static ArrayList<Codec> listFromString(String codecsString) {
-            ArrayList<Codec> codecs = new ArrayList<Codec>();
-            String[] parsedCodecs = codecsString.split(",");
-            for (String c : parsedCodecs) {
-                codecs.add(new Codec(c));
-            }
-            return codecs;
-        }
+        // One shared instance per id, Codec being immutable
+        private static final Codec[] FLYWEIGHTS = new Codec[CodecId.values().length];
+        static {
+            for (CodecId id : CodecId.values()) {
+                FLYWEIGHTS[id.ordinal()] = new Codec(id);
+            }
+        }
+
+        /**
+         * @return The shared instance for that id
+         */
+        public static Codec of(CodecId codecId) {
+            return FLYWEIGHTS[codecId.ordinal()];
+        }
+
+        /**
+         * @return The shared instance for that codec string, e.g mp4a.40.2
+         */
+        public static Codec of(String codecString) {
+            return of(CodecId.fromString(codecString));
+        }
+
+        /**
+         * Note: Goes through HlsValuePool.get().codecs(String) when parsing, so that equal lists are shared
+         */
+        static ArrayList<Codec> listFromString(String codecsString) {
+            ArrayList<Codec> codecs = new ArrayList<Codec>();
+            String[] parsedCodecs = codecsString.split(",");
+            for (String c : parsedCodecs) {
+                codecs.add(Codec.of(c));
+            }
+            return codecs;
+        }
+
+        /**
+         * Prefer Codec.of(String), which doesn't allocate
+         */
+        public Codec(String codecString) {
+            this.id = CodecId.fromString(codecString);
+        }
+
+        /**
+         * Prefer Codec.of(CodecId), which doesn't allocate
+         */
+        public Codec(CodecId codecId) {
+            this.id = codecId;
+        }
+
+        public CodecId getId() {
+            return this.id;
+        }
+
+        public boolean isAVC() {
+            return this.id.name().startsWith("H264");
+        }
+
+        public boolean isAAC() {
+            return this.id.name().startsWith("AAC");
+        }
+
+        public boolean isMP3() {
+            return this.id.name().startsWith("MP3");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Codec && ((Codec) o).id == this.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.id.hashCode();
+        }
+
+        private final CodecId id;
+    }
+
+    /**
+     * A problem found while parsing which didn't stop it, see getDiagnostics()
+     */
+    public static class Diagnostic {
+        Diagnostic(long lineNumber, String message, String line) {
+            this.lineNumber = lineNumber;
+            this.message = message;
+            this.line = line;
+        }
+
+        /**
+         * @return Number of the line (starting at 1)
+         */
+        public long getLineNumber() {
+            return this.lineNumber;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        /**
+         * @return The line as written, null if the problem is not about a single line
+         */
+        public String getLine() {
+            return this.line;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + this.lineNumber + ": " + this.message;
+        }
+
+        private final long lineNumber;
+        private final String message;
+        private final String line;
+    }
+
+    public static class ParsingState {
+        Entry entry = null;
+        MediaInfoEntry mediaInfo = null;
+        StreamInfoEntry streamInfo = null;
+        GroupInfoEntry groupInfo = null;
+        IFrameStreamInfoEntry iFrameStreamInfo = null;
+        URLEntry urlEntry = null;
+        URL url = null;
+        boolean expectUrl = false;
+        boolean skipSegment = false;
+    }
+
+    /**
+     * Receives the entries one by one as they get parsed, see parse(EntryListener).
+     */
+    public interface EntryListener {
+        void onEntry(Entry entry);
+    }
+
+    /**
+     * Decides which segments of a media playlist get parsed, see setSegmentFilter(SegmentFilter).
+     */
+    public interface SegmentFilter {
+        /**
+         * @param sequence Media sequence number of the segment
+         * @return False to skip the segment, i.e no entry gets created for it
+         */
+        boolean accept(long sequence);
+    }
+
+    private final InputStream in;
+    private final Path file;
+    private final URL context;
+
+    private FileType fileType = null;
+
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private final ArrayList<MediaInfoEntry> mediaInfoEntries = new ArrayList<>();
+    private final ArrayList<StreamInfoEntry> streamInfoEntries = new ArrayList<>();
+    private final ArrayList<GroupInfoEntry> groupInfoEntries = new ArrayList<>();
+    private final ArrayList<IFrameStreamInfoEntry> iFrameStreamInfoEntries = new ArrayList<>();
+
+    // Parsing state, carried from one line to the next
+    private ParsingState state = new ParsingState();
+    private long byteRangeOffset = 0;
+    private int parsedEntriesCount = 0;
+    private long mediaSequence = 0;
+    private long segmentsCount = 0;
+    private int targetDuration = -1;
+    private boolean endList = false;
+    private int version = -1;
+    private PlaylistType playlistType = null;
+    private long discontinuitySequence = 0;
+    private boolean independentSegments = false;
+    private boolean iFramesOnly = false;
+    // Media segment tags which apply to the next segment(s), see MediaInfoEntry.setSegmentTags
+    private KeyEntry currentKey = null;
+    private Entry currentMap = null;
+    private String pendingProgramDateTime = null;
+    private boolean pendingDiscontinuity = false;
+    private long sourceLength = 0;
+    private long linesCount = 0;
+    // Only while parsing with metrics enabled, indexed by EntryType ordinal
+    private int[] entryTypeCounts = null;
+    private boolean consumed = false;
+    private EntryListener listener = null;
+    private ArrayList<Diagnostic> diagnostics = null;
+    private long diagnosticsCount = 0;
+
+    // Options
+    private boolean lazyAttributes = false;
+    private SegmentFilter segmentFilter = null;
+    private SegmentIndex segmentIndex = null;
+    private boolean lazyUrls = false;
+    private boolean lenient = false;
+
+    /**
+     * Constructs the object from an input stream and a context URL.
+     * @param in Stream that should contain M3U8 data. It is only read when parsing and never closed by us.
+     * @param context Contextual URL against which we should resolve the references in this file
+     * @param parseAfterReading When set, parse() is called from inside the constructor.
+     */
+    public hlsM3u8Parser(InputStream in, URL context, boolean parseAfterReading) {
+        this.in = in;
+        this.file = null;
+        this.context = context;
+        if (parseAfterReading) {
+            this.parse();
+        }
+    }
+
+    /**
+     * Constructs the object from a local file. Parsing tokenizes it straight from a memory-mapped buffer
+     * (see MIN_MAPPED_FILE_SIZE), without a heap copy of the whole text: only lines we keep become strings.
+     * @param file M3U8 file, only opened while parsing
+     * @param context Contextual URL against which we should resolve the references in this file
+     * @param parseAfterReading When set, parse() is called from inside the constructor.
+     */
+    public hlsM3u8Parser(Path file, URL context, boolean parseAfterReading) {
+        this.in = null;
+        this.file = file;
+        this.context = context;
+        if (parseAfterReading) {
+            this.parse();
+        }
+    }
+
+    /**
+     * Opt-in: entries only remember where their values are in the source line, and decode attributes once
+     * a getter asks for them. Reading only the bandwidth of a variant (or just its URL) then costs close to nothing.
+     * Note: Malformed or unknown attributes are then only reported when they get decoded.
+     * Must be called before parse().
+     */
+    public void setLazyAttributes(boolean lazyAttributes) {
+        this.lazyAttributes = lazyAttributes;
+    }
+
+    /**
+     * Lets the caller skip segments it already has (e.g when refreshing a live playlist): skipped segments are
+     * only tokenized, we don't create entries nor resolve URLs for them. They don't show up in the entries either.
+     * Must be called before parse().
+     */
+    public void setSegmentFilter(SegmentFilter segmentFilter) {
+        this.segmentFilter = segmentFilter;
+    }
+
+    /**
+     * Opt-in: URIs are kept as written in the playlist and only resolved against the context once getUrl() is
+     * called on their entry. Serializing then writes them as written, i.e relative ones stay relative.
+     * Note: Malformed URIs are then only reported by getUrl().
+     * Must be called before parse().
+     */
+    public void setLazyUrls(boolean lazyUrls) {
+        this.lazyUrls = lazyUrls;
+    }
+
+    /**
+     * Opt-in: parse whatever can be parsed instead of failing on the first problem. Unknown tags, comments and lines
+     * which fail to parse (along with their URI) are kept as PassthroughEntry, and written back as is. Unknown
+     * attributes are kept too (see getUnknownAttributes on the entries). The problems are reported in getDiagnostics().
+     * Unknown tags and attributes don't go through exceptions at all, so they don't slow parsing down.
+     * Must be called before parse().
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * Opt-in: index the segments by time and sequence number while parsing, see getSegmentIndex().
+     * Note: This parses the durations right away, even with lazy attributes. Segments which fail to parse (lenient
+     * mode) or are filtered out leave gaps in the sequence numbers of the index.
+     * Must be called before parse().
+     */
+    public void setSegmentIndexEnabled(boolean enabled) {
+        this.segmentIndex = enabled ? new SegmentIndex() : null;
+    }
+
+    /**
+     * @return Index of the parsed segments (positions match getMediaInfoEntries()), or null unless enabled with
+     * setSegmentIndexEnabled(boolean). Also null if the index couldn't be kept in line with the segments in lenient
+     * mode, see getDiagnostics().
+     */
+    public SegmentIndex getSegmentIndex() {
+        return this.segmentIndex;
+    }
+
+    /**
+     * @return Sequence number of the first segment (EXT-X-MEDIA-SEQUENCE), 0 if the playlist doesn't tell
+     */
+    public long getMediaSequence() {
+        return this.mediaSequence;
+    }
+
+    /**
+     * @return Amount of segments in the playlist, including skipped ones (see setSegmentFilter)
+     */
+    public long getSegmentsCount() {
+        return this.segmentsCount;
+    }
+
+    /**
+     * @return True if the playlist has an EXT-X-ENDLIST, i.e no more segments will be added to it
+     */
+    public boolean hasEndList() {
+        return this.endList;
+    }
+
+    /**
+     * @return Maximum segment duration in seconds (EXT-X-TARGETDURATION), -1 if the playlist doesn't tell
+     */
+    public int getTargetDuration() {
+        return this.targetDuration;
+    }
+
+    /**
+     * @return EXT-X-VERSION, -1 if the playlist doesn't tell (i.e version 1)
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return EXT-X-PLAYLIST-TYPE, null if the playlist doesn't tell
+     */
+    public PlaylistType getPlaylistType() {
+        return this.playlistType;
+    }
+
+    /**
+     * @return Discontinuity sequence number of the first segment (EXT-X-DISCONTINUITY-SEQUENCE), 0 if the playlist doesn't tell
+     */
+    public long getDiscontinuitySequence() {
+        return this.discontinuitySequence;
+    }
+
+    /**
+     * @return True if the playlist has an EXT-X-INDEPENDENT-SEGMENTS
+     */
+    public boolean hasIndependentSegments() {
+        return this.independentSegments;
+    }
+
+    /**
+     * @return True if the playlist has an EXT-X-I-FRAMES-ONLY
+     */
+    public boolean isIFramesOnly() {
+        return this.iFramesOnly;
+    }
+
+    /**
+     * @return Amount of chars read from the input stream (line terminators count as one)
+     */
+    public long getSourceLength() {
+        return this.sourceLength;
+    }
+
+    /**
+     * @return Amount of lines read from the input stream
+     */
+    public long getLinesCount() {
+        return this.linesCount;
+    }
+
+    public FileType getFileType() {
+        return this.fileType;
+    }
+
+    /**
+     * @return Problems found while parsing, in line order: lines which are not valid entries, and in lenient mode
+     * what would otherwise have failed the parse. At most MAX_DIAGNOSTICS of them.
+     */
+    public List<Diagnostic> getDiagnostics() {
+        return this.diagnostics == null ? Collections.<Diagnostic>emptyList() : Collections.unmodifiableList(this.diagnostics);
+    }
 
-        public Codec(String codecString) {
-            this.id = CodecId.fromString(codecString);
-        }
+    /**
+     * @return Amount of problems found while parsing, including those beyond MAX_DIAGNOSTICS
+     */
+    public long getDiagnosticsCount() {
+        return this.diagnosticsCount;
+    }
 
-        public Codec(CodecId codecId) {
-            this.id = codecId;
-        }
+    /**
+     * @return Read-only view on the parsed entries, in playlist order (empty when parsed with a listener)
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
 
-        public boolean isAVC() {
-            return this.id.name().startsWith("H264");
-        }
+    public List<MediaInfoEntry> getMediaInfoEntries() {
+        return Collections.unmodifiableList(this.mediaInfoEntries);
+    }
 
-        public boolean isAAC() {
-            return this.id.name().startsWith("AAC");
-        }
+    public List<StreamInfoEntry> getStreamInfoEntries() {
+        return Collections.unmodifiableList(this.streamInfoEntries);
+    }
 
-        public boolean isMP3() {
-            return this.id.name().startsWith("MP3");
-        }
+    public List<GroupInfoEntry> getGroupInfoEntries() {
+        return Collections.unmodifiableList(this.groupInfoEntries);
+    }
 
-        private CodecId id;
+    public List<IFrameStreamInfoEntry> getIFrameStreamInfoEntries() {
+        return Collections.unmodifiableList(this.iFrameStreamInfoEntries);
     }
 
-    public static class ParsingState {
-        Entry entry = null;
-        MediaInfoEntry mediaInfo = null;
-        StreamInfoEntry streamInfo = null;
-        GroupInfoEntry groupInfo = null;
-        URLEntry urlEntry = null;
-        URL url = null;
-        boolean expectUrl = false;
+    public URL getContext() {
+        return this.context;
     }
 
-    static String readFromInputStream(java.io.InputStream is) {
-        java.util.Scanner s = new java.util.Scanner(is).useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
+    /**
+     * Serializes the playlist as UTF-8 into a (per-thread) reusable buffer, then writes it out and flushes once.
+     */
+    public void writeTo(java.io.OutputStream out) {
+        this.writeTo(out, null, null);
     }
 
-    private final String data; // Should actually save ref to in stream
-    private final URL context;
+    /**
+     * Same as writeTo(OutputStream), rewriting the URIs on the fly: those of the segments and variants, and the URI
+     * attributes of the other tags (EXT-X-KEY, EXT-X-MAP, EXT-X-MEDIA, EXT-X-I-FRAME-STREAM-INF...). They are then
+     * written as in the playlist, i.e relative ones stay relative (see UrlRewriter).
+     * @param tokens Token values for the rewriter, e.g for the session the playlist is served to
+     */
+    public void writeTo(java.io.OutputStream out, UrlRewriter rewriter, Map<String, String> tokens) {
 
-    private FileType fileType = null;
+        ////log.info("writeTo");
 
-    private final ArrayList<Entry> entries = new ArrayList<>();
-    private final ArrayList<MediaInfoEntry> mediaInfoEntries = new ArrayList<>();
-    private final ArrayList<StreamInfoEntry> streamInfoEntries = new ArrayList<>();
-    private final ArrayList<GroupInfoEntry> groupInfoEntries = new ArrayList<>();
+        Utf8Buffer buffer = acquireWriteBuffer();
+        try {
+            this.serializeTo(buffer, rewriter, tokens);
+            buffer.writeTo(out);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to write M3U8 data: " + ioe.getMessage(), ioe);
+        } finally {
+            releaseWriteBuffer(buffer);
+        }
+    }
 
     /**
-     * Constructs the object from an input stream and a context URL.
-     * @param in Stream that should contain M3U8 data
-     * @param context Contextual URL against which we should resolve the references in this file
-     * @param parseAfterReading When set, parse() is called from inside the constructor.
+     * Serializes the playlist as UTF-8 into a caller-provided buffer (e.g a direct buffer of the HTTP layer).
+     * @return Amount of bytes written, starting at the current position of target
+     * @throws BufferOverflowException if target has not enough space remaining, nothing is written then
      */
-    public hlsM3u8Parser(InputStream in, URL context, boolean parseAfterReading) {
-        // FIXME: we should consume the stream line by line in the parse method
-        this.data = readFromInputStream(in);
-        this.context = context;
-        if (parseAfterReading) {
-            this.parse();
+    public int writeTo(ByteBuffer target) {
+        Utf8Buffer buffer = acquireWriteBuffer();
+        try {
+            this.serializeTo(buffer);
+            if (buffer.size() > target.remaining()) {
+                throw new BufferOverflowException();
+            }
+            buffer.writeTo(target);
+            return buffer.size();
+        } finally {
+            releaseWriteBuffer(buffer);
         }
     }
 
-    public void writeTo(java.io.OutputStream out) {
+    /**
+     * @return Serialized playlist in a new buffer, which can be handed over without copying (see Utf8Buffer.asByteBuffer)
+     */
+    public Utf8Buffer serialize() {
+        return this.serialize(null, null);
+    }
 
-        ////log.info("writeTo");
+    /**
+     * @see #writeTo(java.io.OutputStream, UrlRewriter, Map)
+     */
+    public Utf8Buffer serialize(UrlRewriter rewriter, Map<String, String> tokens) {
+        Utf8Buffer buffer = new Utf8Buffer(this.estimateSerializedSize());
+        this.serializeTo(buffer, rewriter, tokens);
+        return buffer;
+    }
+
+    void serializeTo(Utf8Buffer out) {
+        this.serializeTo(out, null, null);
+    }
 
-        PrintWriter pw = new PrintWriter(out);
+    void serializeTo(Utf8Buffer out, UrlRewriter rewriter, Map<String, String> tokens) {
+        this.renderTo(out, rewriter, rewriter == null ? null : UrlRewriter.tokenWriterOf(tokens));
+    }
 
+    /**
+     * @param tokens Writes the token values for the rewriter, see PlaylistTemplate
+     */
+    void renderTo(Utf8Buffer out, UrlRewriter rewriter, UrlRewriter.TokenWriter tokens) {
+        out.ensureCapacity(out.size() + this.estimateSerializedSize());
         for (Entry e: this.entries) {
+            // Note: Also rewrites the URI attributes, e.g of EXT-X-KEY, EXT-X-MAP and EXT-X-MEDIA
+            e.appendTo(out, rewriter, tokens);
+            out.append('\n');
+        }
+    }
 
-            String entry = e.toString();
+    private int estimateSerializedSize() {
+        return this.entries.size() * ESTIMATED_ENTRY_SIZE
+                + (this.mediaInfoEntries.size() + this.streamInfoEntries.size()) * ESTIMATED_URL_SIZE;
+    }
 
-            ////log.info(entry);
+    private static Utf8Buffer acquireWriteBuffer() {
+        Utf8Buffer buffer = WRITE_BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
 
-            pw.write(entry);
-            pw.write('\n');
-            pw.flush();
+    private static void releaseWriteBuffer(Utf8Buffer buffer) {
+        // Don't hold on to the memory of exceptionally big playlists
+        if (buffer.capacity() > MAX_RETAINED_WRITE_BUFFER_SIZE) {
+            WRITE_BUFFER.remove();
         }
     }
 
@@ -679,7 +2480,7 @@ public class hlsM3u8Parser {
      * the latter results in a no-op. We assume the initial input stream to be readable in finite time.
      */
     public boolean isParsed() {
-        return this.entries.size() > 0 && this.fileType != null;
+        return this.parsedEntriesCount > 0 && this.fileType != null;
     }
 
     /**
@@ -688,101 +2489,508 @@ public class hlsM3u8Parser {
      * If parse did actually find anything useful, isParsed() will return true and further calls will be no-ops.
      */
     public void parse() {
+        this.parse(null);
+    }
+
+    /**
+     * Streaming variant of parse(): the input stream is consumed in chunks of READ_BUFFER_SIZE and
+     * every entry is handed to the listener as soon as it is complete (i.e including its URL if it has one).
+     * When a listener is given, entries are NOT kept in this object, so memory usage does not grow with the
+     * playlist size. Only the file-type is still determined.
+     * The input stream can only be consumed once, so further calls are no-ops.
+     * @param listener Receives the parsed entries, or null to collect them in this object like parse() does.
+     */
+    public void parse(EntryListener listener) {
 
         ////log.info("Enter parse");
 
-        if (this.isParsed()) {
+        if (this.isParsed() || this.consumed) {
             ////log.info("Already parsed");
             return;
         }
 
-        //log.info("Data size: " + this.data.length() + " characters");
+        this.consumed = true;
+        this.listener = listener;
+
+        // Note: With the no-op metrics, this is all we pay for them
+        HlsMetrics metrics = HlsMetrics.get();
+        boolean measured = metrics.isEnabled();
+        long start = 0;
+        if (measured) {
+            start = System.nanoTime();
+            this.entryTypeCounts = new int[EntryType.values().length];
+        }
+
+        try {
+            if (this.file != null) {
+                this.parseFile();
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(this.in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    this.parseLine(line);
+                }
+            }
+        } catch (IOException ioe) {
+            RuntimeException re = new RuntimeException("Failed to read M3U8 data: " + ioe.getMessage(), ioe);
+            if (measured) {
+                metrics.onParseError(re);
+            }
+            throw re;
+        } catch (RuntimeException re) {
+            if (measured) {
+                metrics.onParseError(re);
+            }
+            throw re;
+        } finally {
+            this.listener = null;
+        }
 
-        // TODO: make scanner read from stream progressively
-        Scanner s = new Scanner(this.data);
+        if (measured) {
+            metrics.onParse(this.fileType, System.nanoTime() - start, this.linesCount, this.sourceLength);
+            EntryType[] types = EntryType.values();
+            for (int i = 0; i < types.length; i++) {
+                if (this.entryTypeCounts[i] > 0) {
+                    metrics.onEntries(types[i], this.entryTypeCounts[i]);
+                }
+            }
+            this.entryTypeCounts = null;
+        }
 
-        int byteRangeOffset = 0;
-        ParsingState state = new ParsingState();
+        //log.info("Exit parse");
+    }
 
-        while(s.hasNextLine()) {
-            String line = s.nextLine();
+    private void parseFile() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("File too large to be parsed: " + this.file);
+            }
 
-            //log.info(line);
+            ByteBuffer buffer;
+            if (size >= MIN_MAPPED_FILE_SIZE) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+                buffer.flip();
+            }
+            this.parseBuffer(buffer);
+        }
+    }
 
-            if (state.expectUrl && !Entry.couldBe(line)) { // Should be a URL now here
-                //log.info("Extracting URL from context: " + this.context);
-                try {
-                    state.url = this.context == null ? new URL(line) : new URL(this.context, line);
-                } catch(MalformedURLException mue) {
-                    throw new RuntimeException("Expected URL but got: " + line + ". Are we missing the context?");
+    /**
+     * Splits the buffer in lines like BufferedReader.readLine does (\n, \r or \r\n).
+     */
+    private void parseBuffer(ByteBuffer buffer) {
+        MappedLine view = new MappedLine(buffer);
+        int limit = buffer.limit();
+        int lineStart = 0;
+        boolean ascii = true;
+
+        for (int i = 0; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                this.parseBufferLine(view, lineStart, i, ascii);
+                if (b == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n') {
+                    i++;
                 }
+                lineStart = i + 1;
+                ascii = true;
+            } else if (b < 0) {
+                ascii = false;
+            }
+        }
+        if (lineStart < limit) {
+            this.parseBufferLine(view, lineStart, limit, ascii);
+        }
+    }
 
-                //log.info("Resolved URL: " + state.url);
+    private void parseBufferLine(MappedLine view, int start, int end, boolean ascii) {
+        if (!ascii) {
+            this.parseLine(view.decodeUtf8(start, end));
+            return;
+        }
 
-                // If we parsed a URL entry, enrich it with that
-                if(state.urlEntry != null) {
-                    state.urlEntry.setUrl(state.url);
-                } else { // Else is an error
-                    throw new RuntimeException("Have parsed URL but no corresponding entry exists");
+        // Shortcuts for the lines which don't need a string, parseLine() takes care of the others
+        view.set(start, end);
+        if (!state.expectUrl) {
+            M3u8Tokenizer.LineType lineType = M3u8Tokenizer.classify(view);
+            boolean skipped;
+            if (state.skipSegment) {
+                // Unknown tags still go through parseLine(), which rejects them (or ignores them in lenient mode),
+                // and so do the tags which carry over to the next segments
+                EntryType type = lineType == M3u8Tokenizer.LineType.TAG ? M3u8Tokenizer.tagType(view) : null;
+                skipped = lineType != M3u8Tokenizer.LineType.TAG || (type != null && !carriesOver(type));
+                if (lineType == M3u8Tokenizer.LineType.URI) {
+                    this.endSkippedSegment();
                 }
+            } else {
+                skipped = lineType == M3u8Tokenizer.LineType.BLANK
+                        || (lineType == M3u8Tokenizer.LineType.COMMENT && !this.lenient);
+            }
+            if (skipped) {
+                this.sourceLength += end - start + 1;
+                this.linesCount++;
+                return;
+            }
+        }
+        this.parseLine(view.toString());
+    }
 
-                // Reset parser state and jump to next line
-                this.digestParsingState(state);
-                state = new ParsingState();
-                continue;
+    private void parseLine(String line) {
 
-            } else if (state.expectUrl && Entry.couldBe(line)) { // We wait for URL but comes another entry
-                Entry urlInfoEntry = new Entry(line);
+        //log.info(line);
 
-                switch(urlInfoEntry.type) {
-                    case EXT_X_BYTERANGE:
-                        if (state.mediaInfo == null) {
-                            throw new RuntimeException("Assertion failed: An media info entry should be parsed before we read a byte-range entry");
-                        }
-                        byteRangeOffset = state.mediaInfo.addByteRange(urlInfoEntry, byteRangeOffset);
-                        break;
-                    default:
-                        break;
+        this.sourceLength += line.length() + 1;
+        this.linesCount++;
+
+        M3u8Tokenizer.LineType lineType = M3u8Tokenizer.classify(line);
+        boolean isEntry = lineType == M3u8Tokenizer.LineType.TAG;
+
+        if (state.skipSegment) { // Segment filtered out, only keep track of what matters for the next ones
+            if (lineType == M3u8Tokenizer.LineType.URI) {
+                this.endSkippedSegment();
+            } else if (isEntry) {
+                EntryType type = this.tagTypeOf(line);
+                try {
+                    if (type == EntryType.EXT_X_BYTERANGE) {
+                        byteRangeOffset = MediaInfoEntry.readByteRange(new Entry(line, EntryType.EXT_X_BYTERANGE), byteRangeOffset, null);
+                    } else if (type != null && carriesOver(type)) {
+                        this.digestTag(this.createEntry(line, type), type);
+                    }
+                } catch (RuntimeException re) {
+                    this.recover(line, re);
                 }
-            } else if (!state.expectUrl && Entry.couldBe(line)) { // A plain and slate entry
-                state.entry = new Entry(line);
+            }
 
-                //log.info(state.entry.type.name());
+        } else if (state.expectUrl && lineType == M3u8Tokenizer.LineType.URI) { // Should be a URL now here
+            //log.info("Extracting URL from context: " + this.context);
 
-                switch(state.entry.type) {
-                    case EXTINF:
-                        state.entry = state.urlEntry = state.mediaInfo = new MediaInfoEntry(line, state.url);
-                        break;
-                    case EXT_X_STREAM_INF:
-                        state.entry = state.urlEntry = state.streamInfo = new StreamInfoEntry(line, state.url);
-                        break;
-                    case EXT_X_MEDIA:
-                        state.entry = state.groupInfo = new GroupInfoEntry(line);
-                        break;
-                    default:
-                        break;
+            // If we parsed a URL entry, enrich it with that
+            if (state.entry instanceof PassthroughEntry) { // Entry we couldn't parse, keep its URI along
+                ((PassthroughEntry) state.entry).addLine(line);
+            } else if(state.urlEntry == null) { // Else is an error
+                throw new RuntimeException("Have parsed URL but no corresponding entry exists");
+            } else if (this.lazyUrls) {
+                state.urlEntry.setLazyUrl(line, this.context);
+            } else {
+                try {
+                    state.url = resolveUrl(this.context, line);
+                    state.urlEntry.setUrl(line, state.url);
+                } catch (RuntimeException re) {
+                    this.recover(line, re);
+                    // Keep it as written, getUrl() reports it again
+                    state.urlEntry.setLazyUrl(line, this.context);
                 }
+            }
 
-                if (state.entry.type.hasURL()) {
-                    state.expectUrl = true;
-                } else {
+            //log.info("Resolved URL: " + state.url);
+
+            if (state.mediaInfo != null) {
+                state.mediaInfo.setSegmentTags(this.currentKey, this.currentMap, this.pendingProgramDateTime, this.pendingDiscontinuity);
+                this.pendingProgramDateTime = null;
+                this.pendingDiscontinuity = false;
+            }
+
+            // Reset parser state and jump to next line
+            this.digestParsingState(state);
+            state = new ParsingState();
+
+        } else if (state.expectUrl && lineType != M3u8Tokenizer.LineType.BLANK) { // We wait for URL but comes another line
+            this.parseInnerLine(line, isEntry);
+        } else if (isEntry) { // A plain and slate entry
+            EntryType type = this.tagTypeOf(line);
+
+            //log.info(type.name());
+
+            if (type == null) {
+                this.digestEntry(new PassthroughEntry(line));
+                return;
+            }
+
+            try {
+                this.parseEntry(line, type);
+            } catch (RuntimeException re) {
+                this.recover(line, re);
+                state = new ParsingState();
+                state.entry = new PassthroughEntry(line);
+                if (!type.hasURL()) {
                     this.digestParsingState(state);
                     state = new ParsingState();
+                    return;
                 }
+            }
+
+            if (state.skipSegment) {
+                return;
+            }
+            if (type.hasURL()) {
+                state.expectUrl = true;
+            } else {
+                this.digestParsingState(state);
+                state = new ParsingState();
+            }
+
+        } else if (lineType == M3u8Tokenizer.LineType.COMMENT) { // Not an entry
+            if (this.lenient) {
+                this.digestEntry(new PassthroughEntry(line));
+            }
+        } else if (lineType != M3u8Tokenizer.LineType.BLANK) {
+            this.addDiagnostic(lineType == M3u8Tokenizer.LineType.URI ? "URI without entry" : "Line is not a valid entry", line);
+            if (this.lenient) {
+                this.digestEntry(new PassthroughEntry(line));
+            }
+        }
+    }
 
-            } else { // Not an entry
+    /**
+     * A line between an entry and its URI: kept along with the entry, and written back at the same place
+     */
+    private void parseInnerLine(String line, boolean isEntry) {
+        // Passthrough entry waiting for its URI, keep anything in between as is
+        if (state.entry instanceof PassthroughEntry) {
+            ((PassthroughEntry) state.entry).addLine(line);
+            return;
+        }
+        if (state.urlEntry == null) { // E.g an EXT-X-BYTERANGE before its EXTINF
+            this.recover(line, new RuntimeException("Expected URL after: " + state.entry));
+            state = new ParsingState();
+            return;
+        }
 
-                // Valid comment line ?
-                if (line.length() > 0 && !line.matches(COMMENT_REGEX)) {
-//                    throw new RuntimeException("Line is not a valid entry: " + line);
-                    System.out.println("Line is not a valid entry: " + line);
+        EntryType type = isEntry ? this.tagTypeOf(line) : null;
+        if (type == null) { // Comment, invalid line or unknown tag (lenient mode only)
+            if (isEntry || M3u8Tokenizer.isComment(line)) {
+                if (this.lenient) {
+                    state.urlEntry.addInnerTag(new PassthroughEntry(line));
+                }
+            } else {
+                this.addDiagnostic("Line is not a valid entry", line);
+                if (this.lenient) {
+                    state.urlEntry.addInnerTag(new PassthroughEntry(line));
                 }
             }
+            return;
         }
 
-        //log.info("Exit parse");
+        switch(type) {
+            case EXT_X_BYTERANGE:
+                if (state.mediaInfo == null) {
+                    throw new RuntimeException("Assertion failed: An media info entry should be parsed before we read a byte-range entry");
+                }
+                Entry byteRange = new Entry(line, type);
+                try {
+                    byteRangeOffset = state.mediaInfo.addByteRange(byteRange, byteRangeOffset);
+                    state.urlEntry.addInnerTag(byteRange);
+                } catch (RuntimeException re) {
+                    this.recover(line, re);
+                    state.urlEntry.addInnerTag(new PassthroughEntry(line));
+                }
+                break;
+            case EXTINF:
+            case EXT_X_STREAM_INF:
+                // Note: Used to be dropped silently, the previous entry then gets the URI of this one
+                this.addDiagnostic("Entry without URI before another one", line);
+                if (this.lenient) {
+                    state.urlEntry.addInnerTag(new PassthroughEntry(line));
+                }
+                break;
+            default:
+                try {
+                    Entry entry = this.createEntry(line, type);
+                    this.digestTag(entry, type);
+                    state.urlEntry.addInnerTag(entry);
+                } catch (RuntimeException re) {
+                    this.recover(line, re);
+                    state.urlEntry.addInnerTag(new PassthroughEntry(line));
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return True for the tags of a segment which also apply to the segments after it, so we need to read them even
+     * when the segment is filtered out
+     */
+    private static boolean carriesOver(EntryType type) {
+        return type == EntryType.EXT_X_BYTERANGE || type == EntryType.EXT_X_KEY || type == EntryType.EXT_X_MAP;
+    }
+
+    private void endSkippedSegment() {
+        state = new ParsingState();
+        this.pendingProgramDateTime = null;
+        this.pendingDiscontinuity = false;
+    }
+
+    /**
+     * Creates the entry for a tag line into the parsing state
+     */
+    private void parseEntry(String line, EntryType type) {
+        switch(type) {
+            case EXTINF:
+                // Note: Counted even when the segment fails to parse below (lenient mode), it keeps its sequence
+                //       number as on the server, the next segments don't move up
+                long sequence = this.mediaSequence + this.segmentsCount++;
+                if (this.segmentFilter != null && !this.segmentFilter.accept(sequence)) {
+                    state.skipSegment = true;
+                    return;
+                }
+                state.entry = state.urlEntry = state.mediaInfo = new MediaInfoEntry(line, type, state.url, this.lazyAttributes);
+                state.mediaInfo.setSequence(sequence);
+                if (this.segmentIndex != null) {
+                    // The index needs the duration anyway, a malformed one fails the segment here rather than later
+                    state.mediaInfo.getDuration();
+                }
+                break;
+            case EXT_X_STREAM_INF:
+                state.entry = state.urlEntry = state.streamInfo = new StreamInfoEntry(line, type, state.url, this.lazyAttributes, this.lenient);
+                break;
+            case EXT_X_MEDIA:
+                state.entry = state.groupInfo = new GroupInfoEntry(line, type, this.lazyAttributes, this.lenient);
+                break;
+            case EXT_X_I_FRAME_STREAM_INF:
+                state.entry = state.iFrameStreamInfo = new IFrameStreamInfoEntry(line, type, this.lazyAttributes);
+                break;
+            default:
+                state.entry = this.createEntry(line, type);
+                break;
+        }
+
+        this.digestTag(state.entry, type);
+    }
+
+    /**
+     * Creates the entry of a tag which needs no parsing state
+     */
+    private Entry createEntry(String line, EntryType type) {
+        switch(type) {
+            case EXT_X_KEY:
+            case EXT_X_SESSION_KEY:
+                return new KeyEntry(line, type, this.lazyAttributes);
+            default:
+                return new Entry(line, type, this.lazyAttributes);
+        }
+    }
+
+    /**
+     * Reads what a tag tells about the whole playlist, or about the next segment(s)
+     */
+    private void digestTag(Entry entry, EntryType type) {
+        switch(type) {
+            case EXT_X_MEDIA_SEQUENCE:
+                this.mediaSequence = Long.parseLong(singleValueOf(entry));
+                break;
+            case EXT_X_TARGETDURATION:
+                this.targetDuration = Integer.parseInt(singleValueOf(entry));
+                break;
+            case EXT_X_ENDLIST:
+                this.endList = true;
+                break;
+            case EXT_X_VERSION:
+                this.version = Integer.parseInt(singleValueOf(entry));
+                break;
+            case EXT_X_PLAYLIST_TYPE:
+                this.playlistType = PlaylistType.valueOf(singleValueOf(entry));
+                break;
+            case EXT_X_DISCONTINUITY_SEQUENCE:
+                this.discontinuitySequence = Long.parseLong(singleValueOf(entry));
+                break;
+            case EXT_X_INDEPENDENT_SEGMENTS:
+                this.independentSegments = true;
+                break;
+            case EXT_X_I_FRAMES_ONLY:
+                this.iFramesOnly = true;
+                break;
+            case EXT_X_KEY:
+                KeyEntry key = (KeyEntry) entry;
+                this.currentKey = key.isEncrypted() ? key : null;
+                break;
+            case EXT_X_MAP:
+                this.currentMap = entry;
+                break;
+            case EXT_X_PROGRAM_DATE_TIME:
+                this.pendingProgramDateTime = singleValueOf(entry);
+                break;
+            case EXT_X_DISCONTINUITY:
+                this.pendingDiscontinuity = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String singleValueOf(Entry entry) {
+        if (entry.valuesCount() != 1) {
+            throw new RuntimeException("Entry should have exactly one value: " + entry);
+        }
+        return entry.getValues().get(0).trim();
+    }
+
+    /**
+     * Lenient mode: records the problem and lets the caller carry on. Otherwise: throws it.
+     * Note: Only malformed values get here, they are the rare case (unlike unknown tags and attributes).
+     */
+    private void recover(String line, RuntimeException re) {
+        if (!this.lenient) {
+            throw re;
+        }
+        this.addDiagnostic(re.getMessage() != null ? re.getMessage() : re.toString(), line);
+    }
+
+    private void addDiagnostic(String message, String line) {
+        this.diagnosticsCount++;
+        if (this.diagnostics == null) {
+            this.diagnostics = new ArrayList<>();
+        }
+        if (this.diagnostics.size() < MAX_DIAGNOSTICS) {
+            this.diagnostics.add(new Diagnostic(this.linesCount, message, line));
+        }
+    }
+
+    /**
+     * Digests an entry that stands on its own, without touching the current parsing state
+     */
+    private void digestEntry(Entry entry) {
+        ParsingState entryState = new ParsingState();
+        entryState.entry = entry;
+        this.digestParsingState(entryState);
+    }
+
+    static URL resolveUrl(URL context, String uri) {
+        try {
+            return context == null ? new URL(uri) : new URL(context, uri);
+        } catch(MalformedURLException mue) {
+            throw new RuntimeException("Expected URL but got: " + uri + ". Are we missing the context?");
+        }
+    }
+
+    /**
+     * @param line Line that has been classified as entry by the tokenizer
+     * @return Type of the entry, throws on unknown tokens like EntryType.fromString does.
+     */
+    private static EntryType entryTypeOf(String line) {
+        EntryType type = M3u8Tokenizer.tagType(line);
+        if (type == null) {
+            throw new RuntimeException("Unknown entry type token: " + M3u8Tokenizer.tagName(line));
+        }
+        return type;
+    }
+
+    /**
+     * @return Type of the entry, null on unknown tokens in lenient mode (throws otherwise)
+     */
+    private EntryType tagTypeOf(String line) {
+        return this.lenient ? M3u8Tokenizer.tagType(line) : entryTypeOf(line);
     }
 
+    /**
+     * Throws once a ParsedPlaylist was made of this parser, it shares the entries.
+     * @deprecated Reparses every URL, use a UrlRewriter (e.g appendSuffix) when serializing instead
+     */
+    @Deprecated
     public boolean addTrailerToEachURL(String trailer) {
         for (Entry e : this.entries) {
             if (e instanceof URLEntry) {
@@ -806,30 +3014,65 @@ public class hlsM3u8Parser {
 
         //log.info("digestParsingState: " + state.entry.type.toString());
 
-        this.entries.add(state.entry);
+        this.parsedEntriesCount++;
 
         // Q: Maybe we could make all this part a little nicer using down-casting,
         //    but it would create a slight processing overhead as well
 
         if (state.mediaInfo != null) {
             this.digestFileType(FileType.MEDIA_PLAYLIST);
+            if (this.segmentIndex != null) {
+                try {
+                    this.segmentIndex.append(state.mediaInfo.getSequence(), state.mediaInfo.getDuration());
+                } catch (RuntimeException re) {
+                    this.recover(state.mediaInfo.getUri(), re);
+                    // Its positions wouldn't match the segments anymore
+                    this.segmentIndex = null;
+                }
+            }
+        }
+
+        if (state.streamInfo != null || state.groupInfo != null || state.iFrameStreamInfo != null) {
+            this.digestFileType(FileType.MASTER_PLAYLIST);
+        }
+
+        if (this.entryTypeCounts != null) {
+            this.entryTypeCounts[state.entry.getType().ordinal()]++;
+        }
+
+        // Streaming mode: hand over the entry and don't keep any reference to it
+        if (this.listener != null) {
+            this.listener.onEntry(state.entry);
+            return;
+        }
+
+        this.entries.add(state.entry);
+
+        if (state.mediaInfo != null) {
             this.mediaInfoEntries.add(state.mediaInfo);
         }
 
         if (state.streamInfo != null) {
-            this.digestFileType(FileType.MASTER_PLAYLIST);
             this.streamInfoEntries.add(state.streamInfo);
         }
 
         if (state.groupInfo != null) {
-            this.digestFileType(FileType.MASTER_PLAYLIST);
             this.groupInfoEntries.add(state.groupInfo);
         }
+
+        if (state.iFrameStreamInfo != null) {
+            this.iFrameStreamInfoEntries.add(state.iFrameStreamInfo);
+        }
     }
 
     private void digestFileType(FileType t) {
         if(this.fileType != null && t != this.fileType) {
-            throw new RuntimeException("The file-type (master/media) of the m3u8 is ambiguous because of its content");
+            String message = "The file-type (master/media) of the m3u8 is ambiguous because of its content";
+            if (!this.lenient) {
+                throw new RuntimeException(message);
+            }
+            // Note: We stick to the first type we saw
+            this.addDiagnostic(message, null);
         }
         else if (this.fileType == null) {
             //log.info("-----> digestFileType: " + t);
@@ -0,0 +1,114 @@
+package com.mkyong.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Lazy attributes (see hlsM3u8Parser.setLazyAttributes) must not change what we read nor what we write back.
+ */
+public class LazyAttributesTest {
+
+    private static final String MEDIA = "#EXTM3U\n"
+            + "#EXT-X-VERSION:4\n"
+            + "#EXT-X-TARGETDURATION:10\n"
+            + "#EXT-X-MEDIA-SEQUENCE:100\n"
+            + "#EXT-X-KEY:METHOD=AES-128,URI=\"https://keys.example.com/k?a=1,b=2\",IV=0x00000000000000000000000000000001\n"
+            + "#EXTINF:10,Artist, Title\n"
+            + "seg100.ts\n"
+            + "#EXTINF:9.5,  spaced  title \n"
+            + "#EXT-X-BYTERANGE:1000@0\n"
+            + "seg101.ts\n"
+            + "#EXTINF:10,a=b, c\n"
+            + "seg102.ts\n"
+            + "#EXTINF:10\n"
+            + "seg103.ts\n"
+            + "#EXTINF:10,\n"
+            + "seg104.ts\n"
+            + "#EXT-X-ENDLIST\n";
+
+    private static final String MASTER = "#EXTM3U\n"
+            + "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aac\",NAME=\"English (US), main\",LANGUAGE=\"en\",DEFAULT=YES,URI=\"a.m3u8\"\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=1280000, RESOLUTION=640x360,CODECS=\"avc1.4d001f,mp4a.40.2\",AUDIO=\"aac\"\n"
+            + "low.m3u8\n"
+            + "#EXT-X-STREAM-INF:PROGRAM-ID=1,BANDWIDTH=2560000,RESOLUTION=1280x720\n"
+            + "mid.m3u8\n";
+
+    @Test
+    public void writesBackTheSameAsEagerParsing() throws Exception {
+        for (String playlist : new String[] {MEDIA, MASTER}) {
+            assertEquals(write(parse(playlist, false)), write(parse(playlist, true)));
+        }
+    }
+
+    @Test
+    public void keepsExtinfTitlesAsWritten() throws Exception {
+        String written = write(parse(MEDIA, true));
+        assertContains(written, "#EXTINF:10,Artist, Title\n");
+        assertContains(written, "#EXTINF:9.5,  spaced  title\n");
+        assertContains(written, "#EXTINF:10,a=b, c\n");
+        assertContains(written, "#EXTINF:10,\nhttp://example.com/live/seg103.ts\n");
+    }
+
+    @Test
+    public void readsTheSameAsEagerParsing() throws Exception {
+        hlsM3u8Parser eager = parse(MEDIA, false);
+        hlsM3u8Parser lazy = parse(MEDIA, true);
+        assertEquals(eager.getMediaInfoEntries().size(), lazy.getMediaInfoEntries().size());
+        for (int i = 0; i < eager.getMediaInfoEntries().size(); i++) {
+            hlsM3u8Parser.MediaInfoEntry e = eager.getMediaInfoEntries().get(i);
+            hlsM3u8Parser.MediaInfoEntry l = lazy.getMediaInfoEntries().get(i);
+            assertEquals(e.getDuration(), l.getDuration(), 0);
+            assertEquals(e.getValue(), l.getValue());
+        }
+        assertEquals("https://keys.example.com/k?a=1,b=2", lazy.getMediaInfoEntries().get(0).getKey().getUri());
+
+        hlsM3u8Parser.StreamInfoEntry variant = parse(MASTER, true).getStreamInfoEntries().get(0);
+        assertEquals(1280000, variant.getBandwidth());
+        assertEquals(640, variant.getResolution().getWidth());
+        assertEquals("avc1.4d001f,mp4a.40.2", variant.getCodecs());
+        assertEquals("English (US), main", parse(MASTER, true).getGroupInfoEntries().get(0).getName());
+    }
+
+    @Test
+    public void failedDecodeLeavesTheEntryAsItWas() throws Exception {
+        hlsM3u8Parser parser = parse("#EXTM3U\n#EXT-X-STREAM-INF:RESOLUTION=bad,BANDWIDTH=1000\nv.m3u8\n", true);
+        hlsM3u8Parser.StreamInfoEntry variant = parser.getStreamInfoEntries().get(0);
+        assertEquals(1000, variant.getBandwidth());
+        for (int i = 0; i < 2; i++) {
+            try {
+                variant.getResolution();
+                fail("Malformed resolution should be reported on every call");
+            } catch (RuntimeException expected) {
+                // reported again, not half decoded
+            }
+        }
+        assertEquals(1000, variant.getBandwidth());
+    }
+
+    private static hlsM3u8Parser parse(String playlist, boolean lazy) throws Exception {
+        hlsM3u8Parser parser = new hlsM3u8Parser(new ByteArrayInputStream(playlist.getBytes(StandardCharsets.UTF_8)),
+                new URL("http://example.com/live/playlist.m3u8"), false);
+        parser.setLazyAttributes(lazy);
+        parser.parse();
+        return parser;
+    }
+
+    private static String write(hlsM3u8Parser parser) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parser.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void assertContains(String text, String part) {
+        if (!text.contains(part)) {
+            fail("Expected " + part + " in:\n" + text);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.mkyong.service;
+
+import com.mkyong.service.VariantIndex.CodecFamily;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class VariantIndexTest {
+
+    private static VariantIndex index(String playlist) throws Exception {
+        hlsM3u8Parser parser = new hlsM3u8Parser(new ByteArrayInputStream(playlist.getBytes(StandardCharsets.UTF_8)),
+                new URL("http://example.com/master.m3u8"), false);
+        parser.parse();
+        return VariantIndex.of(parser);
+    }
+
+    @Test
+    public void partitionsByCodecAndResolution() throws Exception {
+        VariantIndex index = index("#EXTM3U\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360,CODECS=\"avc1.4d001f,mp4a.40.2\"\n"
+                + "low.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=2500000,RESOLUTION=1280x720,CODECS=\"avc1.4d001f,mp4a.40.2\"\n"
+                + "mid.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=3000000,RESOLUTION=1280x720,CODECS=\"avc1.4d001f\"\n"
+                + "mid-video.m3u8\n");
+
+        assertEquals(2, index.withCodecAndResolution(CodecFamily.AVC, 1280, 720).size());
+        assertEquals(1, index.withCodecAndResolution(CodecFamily.AAC, 1280, 720).size());
+        assertEquals(0, index.withCodecAndResolution(CodecFamily.MP3, 1280, 720).size());
+        assertEquals(0, index.withCodecAndResolution(CodecFamily.AVC, 720, 1280).size());
+        assertEquals("mid.m3u8", index.withCodecAndResolution(CodecFamily.AAC, 1280, 720).highest().getUri());
+    }
+
+    @Test
+    public void keepsHugeResolutionsApart() throws Exception {
+        // 268435456 is 1 << 28, 4294967295 is stored as -1
+        VariantIndex index = index("#EXTM3U\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=0x268435456,CODECS=\"avc1.4d001f\"\n"
+                + "tall.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=900000,RESOLUTION=1x0,CODECS=\"avc1.4d001f\"\n"
+                + "thin.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=1000000,RESOLUTION=1x4294967295,CODECS=\"avc1.4d001f\"\n"
+                + "negative.m3u8\n");
+
+        assertEquals("tall.m3u8", index.withCodecAndResolution(CodecFamily.AVC, 0, 1 << 28).highest().getUri());
+        assertEquals(1, index.withCodecAndResolution(CodecFamily.AVC, 0, 1 << 28).size());
+        assertEquals("thin.m3u8", index.withCodecAndResolution(CodecFamily.AVC, 1, 0).highest().getUri());
+        assertEquals(1, index.withCodecAndResolution(CodecFamily.AVC, 1, 0).size());
+        assertEquals("negative.m3u8", index.withCodecAndResolution(CodecFamily.AVC, 1, -1).highest().getUri());
+        assertEquals(0, index.withCodecAndResolution(CodecFamily.AAC, 1, -1).size());
+    }
+}